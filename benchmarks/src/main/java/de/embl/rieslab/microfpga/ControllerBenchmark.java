@@ -0,0 +1,112 @@
+package de.embl.rieslab.microfpga;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import de.embl.rieslab.microfpga.devices.*;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SimulatedTransport;
+
+/**
+ * End-to-end controller setters and getters against a simulated board, with or
+ * without the per-byte latency of the 57600 baud link. Compares single-frame,
+ * burst and pipelined access to the same registers.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ControllerBenchmark {
+
+	@Param({"0", "" + SimulatedTransport.BYTE_NANOS_57600})
+	public long byteLatencyNanos;
+
+	private MicroFPGAController controller_;
+	private RegisterInterface regint_;
+	private LaserParameters[] lasers_;
+	private CameraParameters camera_;
+
+	private final int[] image_ = new int[Signal.NM_REGISTERS];
+	private final int[] addresses_ = new int[Signal.NM_REGISTERS];
+
+	@Setup
+	public void setUp() throws Exception {
+		SimulatedTransport board = new SimulatedTransport();
+		board.setByteLatencyNanos(byteLatencyNanos);
+		regint_ = new RegisterInterface(board);
+
+		controller_ = new MicroFPGAController(regint_, Signal.NM_LASER, Signal.NM_TTL,
+				Signal.NM_SERVO, Signal.NM_PWM, Signal.NM_AI, true);
+
+		lasers_ = new LaserParameters[Signal.NM_LASER];
+		for(int i=0; i<lasers_.length; i++) {
+			lasers_[i] = new LaserParameters(LaserTriggerMode.RISING, 1000 + i, "1010101010101010");
+		}
+		camera_ = new CameraParameters(1., 0.5, 30., 1.);
+
+		for(int i=0; i<addresses_.length; i++) {
+			addresses_[i] = i;
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		controller_.disconnect();
+	}
+
+	@Benchmark
+	public boolean setTTLState() {
+		return controller_.setTTLState(0, true);
+	}
+
+	@Benchmark
+	public int getPWMState() {
+		return controller_.getPWMState(0);
+	}
+
+	@Benchmark
+	public int getAnalogInputState() {
+		return controller_.getAnalogInputState(0);
+	}
+
+	@Benchmark
+	public boolean setLaserParametersSingle() {
+		boolean b = true;
+		for(int i=0; i<lasers_.length; i++) {
+			b &= controller_.setLaserParameters(i, lasers_[i]);
+		}
+		return b;
+	}
+
+	@Benchmark
+	public boolean setLaserParametersBurst() {
+		return controller_.setLaserParameters(lasers_);
+	}
+
+	@Benchmark
+	public boolean setCameraTriggerParameters() {
+		return controller_.setCameraTriggerParameters(camera_);
+	}
+
+	@Benchmark
+	public int readAllSingle() {
+		int sum = 0;
+		for(int i=0; i<addresses_.length; i++) {
+			sum += regint_.read(addresses_[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public boolean readAllPipelined() {
+		return regint_.read(addresses_, image_);
+	}
+
+	@Benchmark
+	public boolean readAllBurst() {
+		return controller_.snapshot(image_);
+	}
+}
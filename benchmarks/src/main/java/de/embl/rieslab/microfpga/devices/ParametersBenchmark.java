@@ -0,0 +1,53 @@
+package de.embl.rieslab.microfpga.devices;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Conversions performed by the laser and camera parameter classes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParametersBenchmark {
+
+	private final CameraParameters camera_ = new CameraParameters(1., 0.5, 30., 1.);
+	private int sequence_ = 43690;
+
+	@Benchmark
+	public int formatSequence() {
+		return LaserTrigger.formatSequence("1010101010101010");
+	}
+
+	@Benchmark
+	public String stringSequence() {
+		sequence_ = (sequence_ + 1) & LaserTrigger.Sequence.MAX;
+		return LaserTrigger.stringSequence(sequence_);
+	}
+
+	@Benchmark
+	public double setCameraValuesMs() {
+		camera_.setValuesMs(1.5, 0.25, 25.5, 1.25);
+		return camera_.getExposureMs();
+	}
+
+	@Benchmark
+	public HashMap<String, Integer> cameraIntValues() {
+		return camera_.getIntValues();
+	}
+
+	@Benchmark
+	public HashMap<String, Double> cameraValuesMs() {
+		return camera_.getValuesMs();
+	}
+
+	@Benchmark
+	public PreparedParameters prepareCamera() {
+		return PreparedParameters.prepare(camera_);
+	}
+}
@@ -0,0 +1,86 @@
+package de.embl.rieslab.microfpga.regint;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import de.embl.rieslab.microfpga.devices.Signal;
+
+/**
+ * Encoding and decoding of register interface frames, and raw register interface
+ * throughput against a simulated board without link latency.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FramingBenchmark {
+
+	private final byte[] frames_ = new byte[Signal.NM_REGISTERS * RegisterInterface.WRITE_FRAME_LENGTH];
+	private final int[] addresses_ = new int[Signal.NM_LASER * 3];
+	private final int[] values_ = new int[Signal.NM_LASER * 3];
+	private final int[] image_ = new int[Signal.NM_REGISTERS];
+
+	private RegisterInterface regint_;
+	private int address_;
+
+	@Setup
+	public void setUp() {
+		for(int i=0; i<addresses_.length; i++) {
+			addresses_[i] = Signal.ADDR_MODE + i;
+			values_[i] = i % 2;
+		}
+
+		regint_ = new RegisterInterface(new SimulatedTransport());
+		regint_.connect();
+	}
+
+	@TearDown
+	public void tearDown() {
+		regint_.disconnect();
+	}
+
+	@Benchmark
+	public int encodeWrite() {
+		address_ = (address_ + 1) & 0x3f;
+		return RegisterInterface.encodeWrite(frames_, 0, address_, 0x12345678);
+	}
+
+	@Benchmark
+	public int encodeRead() {
+		address_ = (address_ + 1) & 0x3f;
+		return RegisterInterface.encodeRead(frames_, 0, address_);
+	}
+
+	@Benchmark
+	public int decode() {
+		return RegisterInterface.decode(frames_, 5);
+	}
+
+	@Benchmark
+	public boolean write() {
+		return regint_.write(Signal.ADDR_TTL, 1);
+	}
+
+	@Benchmark
+	public int read() {
+		return regint_.read(Signal.ADDR_TTL);
+	}
+
+	@Benchmark
+	public boolean writeBatch() {
+		return regint_.write(addresses_, values_, addresses_.length, frames_);
+	}
+
+	@Benchmark
+	public boolean writeBurst() {
+		return regint_.writeBurst(Signal.ADDR_MODE, values_, 0, values_.length);
+	}
+
+	@Benchmark
+	public boolean readBurst() {
+		return regint_.readBurst(Signal.ADDR_MODE, image_, 0, Signal.NM_REGISTERS);
+	}
+}
@@ -0,0 +1,54 @@
+package de.embl.rieslab.microfpga.waveform;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import de.embl.rieslab.microfpga.devices.CameraParameters;
+import de.embl.rieslab.microfpga.devices.LaserParameters;
+import de.embl.rieslab.microfpga.devices.LaserTriggerMode;
+
+/**
+ * Offline rendering of the FPGA outputs, alone and as a parallel sweep.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WaveformBenchmark {
+
+	@Param({"16", "256"})
+	public int frames;
+
+	private final CameraParameters camera_ = new CameraParameters(1., 0.5, 30., 1.);
+	private final LaserParameters[] lasers_ = {
+			new LaserParameters(LaserTriggerMode.RISING, 2000, "1010101010101010"),
+			new LaserParameters(LaserTriggerMode.FALLING, 2000, "0101010101010101"),
+			new LaserParameters(LaserTriggerMode.FOLLOWING, 0, "1100110011001100")
+	};
+
+	private CameraParameters[] cameras_;
+	private LaserParameters[][] candidates_;
+
+	@Setup
+	public void setup() {
+		cameras_ = new CameraParameters[4096];
+		candidates_ = new LaserParameters[cameras_.length][];
+		for(int i=0; i<cameras_.length; i++) {
+			cameras_[i] = new CameraParameters(1., 0.5, 1. + i * 0.01, 1.);
+			candidates_[i] = lasers_;
+		}
+	}
+
+	@Benchmark
+	public WaveformMetrics measure() {
+		return WaveformRenderer.measure(camera_, lasers_, frames);
+	}
+
+	@Benchmark
+	public WaveformMetrics[] sweep4096() {
+		return WaveformRenderer.sweep(cameras_, candidates_, frames);
+	}
+}
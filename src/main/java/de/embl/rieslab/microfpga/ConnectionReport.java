@@ -0,0 +1,86 @@
+package de.embl.rieslab.microfpga;
+
+/**
+ * Time spent in each step of a connection made by a {@link MicroFPGAConnector}.
+ */
+public class ConnectionReport {
+
+	private final String portName_;
+	private final boolean direct_;
+	private final int probed_;
+	private final long lookupNanos_;
+	private final long handshakeNanos_;
+	private final long setupNanos_;
+	private final long totalNanos_;
+
+	protected ConnectionReport(String portName, boolean direct, int probed, long lookupNanos,
+							   long handshakeNanos, long setupNanos, long totalNanos) {
+		portName_ = portName;
+		direct_ = direct;
+		probed_ = probed;
+		lookupNanos_ = lookupNanos;
+		handshakeNanos_ = handshakeNanos;
+		setupNanos_ = setupNanos;
+		totalNanos_ = totalNanos;
+	}
+
+	/**
+	 * @return Port of the board, or null if the connection failed.
+	 */
+	public String getPortName() {
+		return portName_;
+	}
+
+	public boolean isConnected() {
+		return portName_ != null;
+	}
+
+	/**
+	 * @return True if the remembered port was opened directly, without probing.
+	 */
+	public boolean isDirect() {
+		return direct_;
+	}
+
+	/**
+	 * @return Number of ports probed.
+	 */
+	public int getNumberProbed() {
+		return probed_;
+	}
+
+	/**
+	 * @return Time spent listing the candidate ports, in ns.
+	 */
+	public long getLookupNanos() {
+		return lookupNanos_;
+	}
+
+	/**
+	 * @return Time spent opening the selected port and reading its version and id, in ns.
+	 */
+	public long getHandshakeNanos() {
+		return handshakeNanos_;
+	}
+
+	/**
+	 * @return Time spent creating the devices, in ns.
+	 */
+	public long getSetupNanos() {
+		return setupNanos_;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos_;
+	}
+
+	@Override
+	public String toString() {
+		return "[Port: "+portName_+(direct_ ? " (direct)" : "")
+				+", probed: "+probed_
+				+", lookup: "+lookupNanos_/1000.+" us"
+				+", handshake: "+handshakeNanos_/1000.+" us"
+				+", setup: "+setupNanos_/1000.+" us"
+				+", total: "+totalNanos_/1000.+" us]";
+	}
+}
@@ -0,0 +1,189 @@
+package de.embl.rieslab.microfpga;
+
+import java.util.concurrent.locks.LockSupport;
+
+import de.embl.rieslab.microfpga.devices.Signal;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+
+/**
+ * Watches the link to a board by reading {@link Signal#ADDR_VERSION} at a fixed
+ * interval. A failed heartbeat marks the controller as disconnected, the failure
+ * being detected at most one interval plus one read timeout after it happened.
+ * The watchdog then reopens the link at every interval until the board answers
+ * with the same version and id, and writes back the last known state of the
+ * lasers, TTLs, servos, PWMs and camera sync from the shadow registers, in bursts.
+ *
+ * The camera start trigger is only replayed if requested, so that a running
+ * acquisition does not restart unnoticed.
+ *
+ * The watchdog shares the register interface with the devices: if the board is
+ * accessed from other threads, the register interface must be thread-safe (see
+ * {@link de.embl.rieslab.microfpga.regint.ConcurrentRegisterInterface}), in which
+ * case the link is reopened and replayed by urgent commands of its I/O thread.
+ */
+public class ConnectionWatchdog {
+
+	public static final long DEFAULT_INTERVAL_MS = 500;
+
+	private final MicroFPGAController controller_;
+	private final RegisterInterface regint_;
+	private final int version_;
+	private final int id_;
+	private final long intervalNanos_;
+
+	private volatile Thread thread_;
+	private volatile boolean running_;
+	private volatile boolean linkUp_ = true;
+	private volatile boolean replayStartTrigger_;
+
+	private volatile long failures_;
+	private volatile long reconnects_;
+	private volatile int lastReplayCount_;
+	private volatile long lastRecoveryNanos_;
+
+	protected ConnectionWatchdog(MicroFPGAController controller, RegisterInterface regint, int version,
+								 int id, long intervalMs) {
+		if(intervalMs <= 0)
+			throw new IllegalArgumentException("Heartbeat interval must be positive.");
+
+		controller_ = controller;
+		regint_ = regint;
+		version_ = version;
+		id_ = id;
+		intervalNanos_ = intervalMs * 1000000L;
+	}
+
+	public synchronized void start() {
+		if(thread_ != null)
+			return;
+
+		running_ = true;
+		Thread t = new Thread(this::run, "MicroFPGA watchdog");
+		t.setDaemon(true);
+		thread_ = t;
+		t.start();
+	}
+
+	public synchronized void stop() {
+		Thread t = thread_;
+		if(t == null)
+			return;
+
+		running_ = false;
+		LockSupport.unpark(t);
+		if(t != Thread.currentThread()) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		thread_ = null;
+	}
+
+	public boolean isRunning() {
+		return thread_ != null;
+	}
+
+	/**
+	 * @return False between a failed heartbeat and the end of the reconnection.
+	 */
+	public boolean isLinkUp() {
+		return linkUp_;
+	}
+
+	/**
+	 * Sets whether the camera start trigger is replayed after a reconnection.
+	 *
+	 * @param replay True to restart the camera if it was running.
+	 */
+	public void setReplayStartTrigger(boolean replay) {
+		replayStartTrigger_ = replay;
+	}
+
+	public long getHeartbeatIntervalMs() {
+		return intervalNanos_ / 1000000L;
+	}
+
+	/**
+	 * @return Number of failed heartbeats and reconnection attempts.
+	 */
+	public long getFailureCount() {
+		return failures_;
+	}
+
+	public long getReconnectCount() {
+		return reconnects_;
+	}
+
+	/**
+	 * @return Number of registers written back after the last reconnection.
+	 */
+	public int getLastReplayCount() {
+		return lastReplayCount_;
+	}
+
+	/**
+	 * @return Time between the detection of the last failure and the end of the
+	 * state replay, in ns.
+	 */
+	public long getLastRecoveryNanos() {
+		return lastRecoveryNanos_;
+	}
+
+	private void run() {
+		long failedAt = 0;
+		long next = System.nanoTime();
+
+		while(running_) {
+			long wait = next - System.nanoTime();
+			if(wait > 0) {
+				LockSupport.parkNanos(this, wait);
+				continue;
+			}
+			next += intervalNanos_;
+
+			if(linkUp_) {
+				if(regint_.read(Signal.ADDR_VERSION) == version_)
+					continue;
+
+				failures_++;
+				failedAt = System.nanoTime();
+				linkUp_ = false;
+				controller_.setLinkUp(false);
+			}
+
+			// try again immediately after a failed heartbeat, then at each interval
+			if(reconnect()) {
+				lastRecoveryNanos_ = System.nanoTime() - failedAt;
+				reconnects_++;
+				linkUp_ = true;
+				controller_.setLinkUp(true);
+			} else {
+				failures_++;
+			}
+			next = System.nanoTime() + intervalNanos_;
+		}
+	}
+
+	private boolean reconnect() {
+		// the I/O thread of a concurrent register interface is kept running
+		if(!regint_.reopen(new int[]{Signal.ADDR_VERSION, Signal.ADDR_ID}, new int[]{version_, id_}))
+			return false;
+
+		int n = regint_.restoreShadow(Signal.ADDR_MODE, Signal.ADDR_START_TRIGGER - Signal.ADDR_MODE);
+		int m = regint_.restoreShadow(Signal.ADDR_CAM_PULSE, Signal.ADDR_ANALOG_INPUT - Signal.ADDR_CAM_PULSE);
+		if(n < 0 || m < 0)
+			return false;
+
+		if(replayStartTrigger_) {
+			int s = regint_.restoreShadow(Signal.ADDR_START_TRIGGER, 1);
+			if(s < 0)
+				return false;
+			m += s;
+		}
+
+		lastReplayCount_ = n + m;
+		return true;
+	}
+}
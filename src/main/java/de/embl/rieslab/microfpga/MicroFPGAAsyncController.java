@@ -0,0 +1,189 @@
+package de.embl.rieslab.microfpga;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import de.embl.rieslab.microfpga.devices.CameraParameters;
+import de.embl.rieslab.microfpga.devices.LaserParameters;
+import de.embl.rieslab.microfpga.devices.PreparedParameters;
+
+/**
+ * Asynchronous facade over a {@link MicroFPGAController}. All operations are
+ * queued to a single thread owning the controller, and executed in submission
+ * order. Callers can therefore issue several changes and only wait once on the
+ * returned futures.
+ *
+ * The wrapped controller must not be used directly from other threads while the
+ * facade is in use.
+ */
+public class MicroFPGAAsyncController implements AutoCloseable {
+
+	private final MicroFPGAController controller_;
+	private final ExecutorService executor_;
+
+	public MicroFPGAAsyncController(MicroFPGAController controller) {
+		controller_ = controller;
+		executor_ = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "MicroFPGA I/O");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public MicroFPGAController getController() {
+		return controller_;
+	}
+
+	/**
+	 * Queues an arbitrary operation on the controller.
+	 *
+	 * @param operation Operation to run on the I/O thread.
+	 * @param <T> Result type.
+	 * @return Future completed with the result of the operation, or failed with a
+	 * RejectedExecutionException if the facade was shut down.
+	 */
+	public <T> CompletableFuture<T> submit(Function<MicroFPGAController, T> operation) {
+		try {
+			return CompletableFuture.supplyAsync(() -> operation.apply(controller_), executor_);
+		} catch (RejectedExecutionException e) {
+			CompletableFuture<T> f = new CompletableFuture<>();
+			f.completeExceptionally(e);
+			return f;
+		}
+	}
+
+	public CompletableFuture<Boolean> setTTLState(int channel, boolean state) {
+		return submit(c -> c.setTTLState(channel, state));
+	}
+
+	public CompletableFuture<Boolean> getTTLState(int channel) {
+		return submit(c -> c.getTTLState(channel));
+	}
+
+	public CompletableFuture<Boolean> setPWMState(int channel, int state) {
+		return submit(c -> c.setPWMState(channel, state));
+	}
+
+	public CompletableFuture<Integer> getPWMState(int channel) {
+		return submit(c -> c.getPWMState(channel));
+	}
+
+	public CompletableFuture<Boolean> setServoState(int channel, int state) {
+		return submit(c -> c.setServoState(channel, state));
+	}
+
+	public CompletableFuture<Integer> getServoState(int channel) {
+		return submit(c -> c.getServoState(channel));
+	}
+
+	public CompletableFuture<Integer> getAnalogInputState(int channel) {
+		return submit(c -> c.getAnalogInputState(channel));
+	}
+
+	public CompletableFuture<Boolean> setLaserParameters(int channel, LaserParameters p) {
+		return submit(c -> c.setLaserParameters(channel, p));
+	}
+
+	public CompletableFuture<Boolean> setLaserParameters(LaserParameters[] params) {
+		return submit(c -> c.setLaserParameters(params));
+	}
+
+	public CompletableFuture<LaserParameters> getLaserParameters(int channel) {
+		return submit(c -> c.getLaserParameters(channel));
+	}
+
+	public CompletableFuture<Boolean> setLaserModeState(int channel, int state) {
+		return submit(c -> c.setLaserModeState(channel, state));
+	}
+
+	public CompletableFuture<Integer> getLaserModeState(int channel) {
+		return submit(c -> c.getLaserModeState(channel));
+	}
+
+	public CompletableFuture<Boolean> setLaserDurationState(int channel, int state) {
+		return submit(c -> c.setLaserDurationState(channel, state));
+	}
+
+	public CompletableFuture<Integer> getLaserDurationState(int channel) {
+		return submit(c -> c.getLaserDurationState(channel));
+	}
+
+	public CompletableFuture<Boolean> setLaserSequenceState(int channel, int state) {
+		return submit(c -> c.setLaserSequenceState(channel, state));
+	}
+
+	public CompletableFuture<Integer> getLaserSequenceState(int channel) {
+		return submit(c -> c.getLaserSequenceState(channel));
+	}
+
+	public CompletableFuture<Boolean> setActiveSync() {
+		return submit(MicroFPGAController::setActiveSync);
+	}
+
+	public CompletableFuture<Boolean> setPassiveSync() {
+		return submit(MicroFPGAController::setPassiveSync);
+	}
+
+	public CompletableFuture<Boolean> isActiveSync() {
+		return submit(MicroFPGAController::isActiveSync);
+	}
+
+	public CompletableFuture<Boolean> startCamera() {
+		return submit(MicroFPGAController::startCamera);
+	}
+
+	public CompletableFuture<Boolean> stopCamera() {
+		return submit(MicroFPGAController::stopCamera);
+	}
+
+	public CompletableFuture<Boolean> setCameraTriggerParameters(CameraParameters p) {
+		return submit(c -> c.setCameraTriggerParameters(p));
+	}
+
+	public CompletableFuture<CameraParameters> getCameraTriggerParameters() {
+		return submit(MicroFPGAController::getCameraTriggerParameters);
+	}
+
+	public CompletableFuture<Boolean> applyParameters(PreparedParameters params) {
+		return submit(c -> c.applyParameters(params));
+	}
+
+	public CompletableFuture<Boolean> flush() {
+		return submit(MicroFPGAController::flush);
+	}
+
+	public CompletableFuture<Boolean> snapshot(int[] image) {
+		return submit(c -> c.snapshot(image));
+	}
+
+	/**
+	 * Disconnects the controller once all queued operations have been executed,
+	 * and stops the I/O thread.
+	 *
+	 * @return Future completed once the controller is disconnected.
+	 */
+	public CompletableFuture<Void> disconnect() {
+		CompletableFuture<Void> f = submit(c -> {
+			c.disconnect();
+			return null;
+		});
+		executor_.shutdown();
+		return f;
+	}
+
+	public boolean isShutdown() {
+		return executor_.isShutdown();
+	}
+
+	/**
+	 * Stops the I/O thread once all queued operations have been executed, without
+	 * disconnecting the controller.
+	 */
+	@Override
+	public void close() {
+		executor_.shutdown();
+	}
+}
@@ -0,0 +1,201 @@
+package de.embl.rieslab.microfpga;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SerialTransport;
+
+/**
+ * Manages several MicroFPGA boards connected to the same computer. Each board is
+ * identified by its serial port name, has its own controller and devices, and its
+ * own I/O thread (see {@link MicroFPGAAsyncController}), so that operations can be
+ * fanned out to all boards concurrently.
+ *
+ * The controllers should only be accessed through the manager or their asynchronous
+ * facade.
+ */
+public class MicroFPGABoardManager implements AutoCloseable {
+
+	private final Map<String, MicroFPGAAsyncController> boards_ = new LinkedHashMap<>();
+
+	/**
+	 * Lists the serial ports connected to an Alchitry board.
+	 *
+	 * @return Port names.
+	 */
+	public static List<String> findBoards() {
+		return SerialTransport.findPorts();
+	}
+
+	/**
+	 * Connects to the board on a specific serial port.
+	 *
+	 * @param portName System port name, e.g. COM3 or ttyUSB0.
+	 * @return Asynchronous controller of the board.
+	 * @throws Exception If the connection fails or the board is not supported.
+	 */
+	public MicroFPGAAsyncController connect(String portName, int nLasers, int nTTLs, int nServos,
+											int nPWMs, int nAIs, boolean useCamera) throws Exception {
+		return connect(portName, new RegisterInterface(new SerialTransport(portName)),
+				nLasers, nTTLs, nServos, nPWMs, nAIs, useCamera);
+	}
+
+	/**
+	 * Adds a board reachable through a specific register interface.
+	 *
+	 * @param name Name identifying the board in the manager.
+	 * @param regint Register interface of the board.
+	 * @return Asynchronous controller of the board.
+	 * @throws Exception If the connection fails, the board is not supported or the name is already in use.
+	 */
+	public MicroFPGAAsyncController connect(String name, RegisterInterface regint, int nLasers, int nTTLs,
+											int nServos, int nPWMs, int nAIs, boolean useCamera) throws Exception {
+		synchronized (this) {
+			if(boards_.containsKey(name))
+				throw new Exception("Board "+name+" is already connected.");
+		}
+
+		// connection happens outside the lock so that boards connect concurrently
+		MicroFPGAController controller = new MicroFPGAController(regint, nLasers, nTTLs, nServos,
+				nPWMs, nAIs, useCamera);
+		MicroFPGAAsyncController board = new MicroFPGAAsyncController(controller);
+
+		synchronized (this) {
+			if(!boards_.containsKey(name)) {
+				boards_.put(name, board);
+				return board;
+			}
+		}
+
+		board.disconnect().join();
+		throw new Exception("Board "+name+" is already connected.");
+	}
+
+	/**
+	 * Connects concurrently to all Alchitry boards found, with the same device configuration.
+	 *
+	 * @return Names of the boards that could be connected.
+	 */
+	public List<String> connectAll(int nLasers, int nTTLs, int nServos, int nPWMs, int nAIs, boolean useCamera) {
+		List<String> names = findBoards();
+
+		List<String> connected = new ArrayList<>();
+		if(names.isEmpty())
+			return connected;
+
+		// connecting blocks on serial I/O, one thread per board
+		ExecutorService executor = Executors.newFixedThreadPool(names.size(), r -> {
+			Thread t = new Thread(r, "MicroFPGA board connection");
+			t.setDaemon(true);
+			return t;
+		});
+
+		try {
+			List<CompletableFuture<String>> futures = new ArrayList<>();
+			for(String name: names) {
+				futures.add(CompletableFuture.supplyAsync(() -> {
+					try {
+						connect(name, nLasers, nTTLs, nServos, nPWMs, nAIs, useCamera);
+						return name;
+					} catch (Exception e) {
+						return null;
+					}
+				}, executor));
+			}
+
+			for(CompletableFuture<String> f: futures) {
+				String name = f.join();
+				if(name != null)
+					connected.add(name);
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		return connected;
+	}
+
+	public synchronized List<String> getBoardNames() {
+		return new ArrayList<>(boards_.keySet());
+	}
+
+	public synchronized MicroFPGAAsyncController getBoard(String name) {
+		return boards_.get(name);
+	}
+
+	public synchronized int getNumberBoards() {
+		return boards_.size();
+	}
+
+	/**
+	 * Queues an operation on every board. Each board runs it on its own I/O thread.
+	 *
+	 * @param operation Operation to run on each controller.
+	 * @param <T> Result type.
+	 * @return Futures of the results, by board name.
+	 */
+	public synchronized <T> Map<String, CompletableFuture<T>> submitAll(Function<MicroFPGAController, T> operation) {
+		Map<String, CompletableFuture<T>> futures = new LinkedHashMap<>();
+		for(Map.Entry<String, MicroFPGAAsyncController> e: boards_.entrySet()) {
+			futures.put(e.getKey(), e.getValue().submit(operation));
+		}
+		return futures;
+	}
+
+	/**
+	 * Runs an operation on every board concurrently and waits for all of them.
+	 *
+	 * @param operation Operation to run on each controller.
+	 * @param <T> Result type.
+	 * @return Results, by board name.
+	 */
+	public <T> Map<String, T> applyAll(Function<MicroFPGAController, T> operation) {
+		Map<String, CompletableFuture<T>> futures = submitAll(operation);
+
+		Map<String, T> results = new LinkedHashMap<>();
+		for(Map.Entry<String, CompletableFuture<T>> e: futures.entrySet()) {
+			results.put(e.getKey(), e.getValue().join());
+		}
+		return results;
+	}
+
+	/**
+	 * Disconnects a board and removes it from the manager.
+	 *
+	 * @param name Board name.
+	 */
+	public void disconnect(String name) {
+		MicroFPGAAsyncController board;
+		synchronized (this) {
+			board = boards_.remove(name);
+		}
+
+		if(board != null)
+			board.disconnect().join();
+	}
+
+	/**
+	 * Disconnects all boards.
+	 */
+	@Override
+	public void close() {
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		synchronized (this) {
+			for(MicroFPGAAsyncController board: boards_.values()) {
+				futures.add(board.disconnect());
+			}
+			boards_.clear();
+		}
+
+		for(CompletableFuture<Void> f: futures) {
+			f.join();
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package de.embl.rieslab.microfpga;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import de.embl.rieslab.microfpga.regint.ConcurrentRegisterInterface;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SerialTransport;
+import de.embl.rieslab.microfpga.regint.Transport;
+
+/**
+ * Connects quickly to a MicroFPGA board. The port used by the last successful
+ * connection is remembered and opened directly by name, without enumerating the
+ * serial ports. If this fails, all candidate ports are probed concurrently with a
+ * short read timeout, and the first one answering with a supported version and id
+ * is used. Ports connected to other devices are thus rejected by the handshake
+ * rather than by their description.
+ *
+ * The time spent in each step of the last connection is available from
+ * {@link #getLastReport()}.
+ */
+public class MicroFPGAConnector {
+
+	public static final int DEFAULT_PROBE_TIMEOUT_MS = 100;
+
+	private final Supplier<List<String>> ports_;
+	private final Function<String, Transport> transports_;
+
+	private volatile String portName_;
+	private volatile int probeTimeoutMs_ = DEFAULT_PROBE_TIMEOUT_MS;
+	private volatile ConnectionReport report_;
+	private volatile boolean concurrent_;
+
+	/**
+	 * Creates a connector probing the serial ports of the Alchitry boards.
+	 */
+	public MicroFPGAConnector() {
+		this(SerialTransport::findPorts, SerialTransport::new);
+	}
+
+	/**
+	 * Creates a connector probing arbitrary ports, for instance simulated boards.
+	 *
+	 * @param ports Lists the candidate port names.
+	 * @param transports Creates the transport of a port from its name.
+	 */
+	public MicroFPGAConnector(Supplier<List<String>> ports, Function<String, Transport> transports) {
+		ports_ = ports;
+		transports_ = transports;
+	}
+
+	/**
+	 * Sets the port to try first, for instance one saved from {@link #getPortName()}
+	 * in a previous session.
+	 *
+	 * @param portName System port name, or null to always probe.
+	 */
+	public void setPortName(String portName) {
+		portName_ = portName;
+	}
+
+	/**
+	 * @return Port of the last successful connection, or the one set with
+	 * {@link #setPortName(String)}.
+	 */
+	public String getPortName() {
+		return portName_;
+	}
+
+	/**
+	 * Sets the read timeout used during the handshake with serial ports.
+	 *
+	 * @param ms Timeout in ms.
+	 */
+	public void setProbeTimeout(int ms) {
+		if(ms > 0)
+			probeTimeoutMs_ = ms;
+	}
+
+	public int getProbeTimeout() {
+		return probeTimeoutMs_;
+	}
+
+	/**
+	 * Sets whether the controllers communicate through a {@link ConcurrentRegisterInterface},
+	 * which is required to use them from several threads, e.g. with a watchdog, an
+	 * analog input sampler or a timeline player.
+	 *
+	 * @param concurrent True to create thread-safe controllers.
+	 */
+	public void setConcurrent(boolean concurrent) {
+		concurrent_ = concurrent;
+	}
+
+	public boolean isConcurrent() {
+		return concurrent_;
+	}
+
+	/**
+	 * @return Time breakdown of the last connection attempt, or null.
+	 */
+	public ConnectionReport getLastReport() {
+		return report_;
+	}
+
+	/**
+	 * Connects to a board and creates its devices.
+	 *
+	 * @return Controller ready to be used.
+	 * @throws Exception If no supported board answered.
+	 */
+	public MicroFPGAController connect(int nLasers, int nTTLs, int nServos, int nPWMs,
+									   int nAIs, boolean useCamera) throws Exception {
+		long start = System.nanoTime();
+		long lookup = 0;
+		int probed = 0;
+
+		// remembered port first
+		Probe probe = null;
+		String remembered = portName_;
+		if(remembered != null) {
+			probe = probe(remembered, null);
+			probed++;
+		}
+
+		boolean direct = probe != null;
+		if(!direct) {
+			long t = System.nanoTime();
+			List<String> candidates = new ArrayList<>(ports_.get());
+			candidates.remove(remembered);
+			lookup = System.nanoTime() - t;
+
+			probe = probeAll(candidates);
+			probed += candidates.size();
+		}
+
+		if(probe == null) {
+			report_ = new ConnectionReport(null, direct, probed, lookup, 0, 0, System.nanoTime() - start);
+			throw new Exception("Could not find a supported device.");
+		}
+
+		long t = System.nanoTime();
+		MicroFPGAController controller = new MicroFPGAController(probe.regint_, probe.handshake_,
+				nLasers, nTTLs, nServos, nPWMs, nAIs, useCamera);
+		long setup = System.nanoTime() - t;
+
+		portName_ = probe.portName_;
+		report_ = new ConnectionReport(probe.portName_, direct, probed, lookup, probe.nanos_,
+				setup, System.nanoTime() - start);
+
+		return controller;
+	}
+
+	private Probe probeAll(List<String> candidates) throws InterruptedException {
+		if(candidates.isEmpty())
+			return null;
+
+		ExecutorService executor = Executors.newFixedThreadPool(candidates.size(), r -> {
+			Thread t = new Thread(r, "MicroFPGA port probe");
+			t.setDaemon(true);
+			return t;
+		});
+
+		try {
+			AtomicBoolean claimed = new AtomicBoolean();
+			CompletionService<Probe> service = new ExecutorCompletionService<>(executor);
+			for(String name: candidates) {
+				service.submit(() -> probe(name, claimed));
+			}
+
+			// first supported board wins, the others close their port
+			for(int i=0; i<candidates.size(); i++) {
+				try {
+					Probe p = service.take().get();
+					if(p != null)
+						return p;
+				} catch (ExecutionException e) {
+					// probe failed, try the next one
+				}
+			}
+			return null;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Opens a port and reads the version and id of the board.
+	 *
+	 * @param claimed Set by the first successful probe, or null if not racing.
+	 * @return Connected probe, or null if the board is absent, unsupported or lost the race.
+	 */
+	private Probe probe(String name, AtomicBoolean claimed) {
+		long start = System.nanoTime();
+
+		Transport transport = transports_.apply(name);
+		if(transport instanceof SerialTransport)
+			((SerialTransport) transport).setReadTimeout(probeTimeoutMs_);
+
+		RegisterInterface regint = concurrent_ ? new ConcurrentRegisterInterface(transport)
+				: new RegisterInterface(transport);
+		int[] handshake = MicroFPGAController.handshake(regint);
+		if(handshake == null)
+			return null;
+
+		if(!MicroFPGAController.isSupported(handshake[0], handshake[1])
+				|| (claimed != null && !claimed.compareAndSet(false, true))) {
+			regint.disconnect();
+			return null;
+		}
+
+		if(transport instanceof SerialTransport)
+			((SerialTransport) transport).setReadTimeout(SerialTransport.READ_TIMEOUT_MS);
+
+		return new Probe(name, regint, handshake, System.nanoTime() - start);
+	}
+
+	private static final class Probe {
+		private final String portName_;
+		private final RegisterInterface regint_;
+		private final int[] handshake_;
+		private final long nanos_;
+
+		Probe(String portName, RegisterInterface regint, int[] handshake, long nanos) {
+			portName_ = portName;
+			regint_ = regint;
+			handshake_ = handshake;
+			nanos_ = nanos;
+		}
+	}
+}
@@ -3,7 +3,12 @@ package de.embl.rieslab.microfpga;
 import java.util.ArrayList;
 
 import de.embl.rieslab.microfpga.devices.*;
+import de.embl.rieslab.microfpga.regint.ConcurrentRegisterInterface;
+import de.embl.rieslab.microfpga.regint.Priority;
 import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.VerificationReport;
+import de.embl.rieslab.microfpga.timeline.SequenceStreamer;
+import de.embl.rieslab.microfpga.timeline.TimelinePlayer;
 
 public class MicroFPGAController {
 
@@ -14,7 +19,11 @@ public class MicroFPGAController {
 	private ArrayList<AnalogInput> ais_;
 	private CameraSync cam_;
 	
-	private boolean connected_;
+	private volatile boolean connected_;
+	private ConnectionWatchdog watchdog_;
+	private PresetBank presets_;
+	private volatile boolean verify_;
+	private volatile VerificationReport lastVerification_;
 	
 	private final RegisterInterface regint_;
 	private final int id_;
@@ -22,19 +31,35 @@ public class MicroFPGAController {
 	
 	public MicroFPGAController(int nLasers, int nTTLs, int nServos, int nPWMs,
 							   int nAIs, boolean useCamera) throws Exception {
+		this(new RegisterInterface(), nLasers, nTTLs, nServos, nPWMs, nAIs, useCamera);
+	}
+
+	/**
+	 * Creates a controller communicating through a specific register interface, for
+	 * instance one built on a {@link de.embl.rieslab.microfpga.regint.SimulatedTransport}.
+	 */
+	public MicroFPGAController(RegisterInterface regint, int nLasers, int nTTLs, int nServos, int nPWMs,
+							   int nAIs, boolean useCamera) throws Exception {
+		this(regint, handshake(regint), nLasers, nTTLs, nServos, nPWMs, nAIs, useCamera);
+	}
 
-		regint_ = new RegisterInterface();
+	/**
+	 * Creates a controller on a register interface that is already connected and
+	 * whose version and id have been read, see {@link MicroFPGAConnector}.
+	 *
+	 * @param handshake Version and id of the board, or null if the connection failed.
+	 */
+	MicroFPGAController(RegisterInterface regint, int[] handshake, int nLasers, int nTTLs, int nServos, int nPWMs,
+						int nAIs, boolean useCamera) throws Exception {
 
-		// attempts to connect to the interface
-		connected_ = regint_.connect();
+		regint_ = regint;
+		connected_ = handshake != null;
 		
 		if(connected_){
-			version_  = regint_.read(Signal.ADDR_VERSION);
-			id_ = regint_.read(Signal.ADDR_ID);
+			version_  = handshake[0];
+			id_ = handshake[1];
 			
-			if(Signal.CURRENT_VERSION == version_ &&
-					( (id_ == Signal.ID_AU) ||(id_ == Signal.ID_AUP) ||
-							(id_ == Signal.ID_CU) || (id_ == Signal.ID_MOJO) ) ) {
+			if(isSupported(version_, id_)) {
 				DeviceFactory factory = new DeviceFactory(regint_);
 				
 				ttls_ = new ArrayList<TTL>();
@@ -83,9 +108,90 @@ public class MicroFPGAController {
 		}
 	}
 
+	/**
+	 * Connects the register interface and reads the version and id of the board.
+	 *
+	 * @return Version and id, or null if the connection failed.
+	 */
+	static int[] handshake(RegisterInterface regint) {
+		if(!regint.connect())
+			return null;
+		return new int[]{regint.read(Signal.ADDR_VERSION), regint.read(Signal.ADDR_ID)};
+	}
+
+	/**
+	 * @return True if a board with this firmware version and id is supported.
+	 */
+	public static boolean isSupported(int version, int id) {
+		return Signal.CURRENT_VERSION == version &&
+				( (id == Signal.ID_AU) ||(id == Signal.ID_AUP) ||
+						(id == Signal.ID_CU) || (id == Signal.ID_MOJO) );
+	}
+
 	public void disconnect() {
+		stopWatchdog();
 		connected_ = !regint_.disconnect();
 	}
+
+	/**
+	 * Starts a watchdog checking the link to the board, reconnecting and restoring
+	 * the state of the devices if it fails, see {@link ConnectionWatchdog}. While the
+	 * link is down, {@link #isConnected()} returns false and the setters fail.
+	 *
+	 * The heartbeats are sent from another thread, so the controller must use a
+	 * {@link ConcurrentRegisterInterface}.
+	 *
+	 * @param intervalMs Interval between heartbeats in ms.
+	 * @return Watchdog, or null if not connected or if the register interface is
+	 * not thread-safe.
+	 */
+	public synchronized ConnectionWatchdog startWatchdog(long intervalMs) {
+		if(!connected_ || !isThreadSafe())
+			return null;
+
+		if(watchdog_ == null) {
+			watchdog_ = new ConnectionWatchdog(this, regint_, version_, id_, intervalMs);
+			watchdog_.start();
+		}
+		return watchdog_;
+	}
+
+	/**
+	 * @return True if the controller can be used from several threads, i.e. if its
+	 * register interface is a {@link ConcurrentRegisterInterface}.
+	 */
+	public boolean isThreadSafe() {
+		return regint_ instanceof ConcurrentRegisterInterface;
+	}
+
+	public synchronized void stopWatchdog() {
+		if(watchdog_ != null) {
+			watchdog_.stop();
+			watchdog_ = null;
+		}
+	}
+
+	public synchronized ConnectionWatchdog getWatchdog() {
+		return watchdog_;
+	}
+
+	/**
+	 * Returns the bank of named presets of this board, see {@link PresetBank}.
+	 *
+	 * @return Preset bank, or null if not connected.
+	 */
+	public synchronized PresetBank getPresetBank() {
+		if(!connected_)
+			return null;
+
+		if(presets_ == null)
+			presets_ = new PresetBank(this, regint_);
+		return presets_;
+	}
+
+	void setLinkUp(boolean up) {
+		connected_ = up;
+	}
 	
 	public boolean isConnected() {
 		return connected_;
@@ -107,9 +213,42 @@ public class MicroFPGAController {
 		return ais_.size();
 	}
 	
+	/**
+	 * Enables the verification of the writes made by the setters of TTLs, PWMs,
+	 * servos, lasers and camera parameters. Each setter then reads back the
+	 * registers it wrote, with a single burst or pipelined read, and only returns
+	 * true if the board holds the values written. The mismatches are available from
+	 * {@link #getLastVerification()}. Coalescing channels are not verified.
+	 *
+	 * @param verify True to verify the writes.
+	 */
+	public void setVerifyEnabled(boolean verify) {
+		verify_ = verify;
+	}
+
+	public boolean isVerifyEnabled() {
+		return verify_;
+	}
+
+	/**
+	 * @return Report of the last read-back made in verify mode, or null.
+	 */
+	public VerificationReport getLastVerification() {
+		return lastVerification_;
+	}
+
+	private boolean verify(boolean written, int... addresses) {
+		if(!written || !verify_)
+			return written;
+
+		VerificationReport report = regint_.verifyShadow(addresses);
+		lastVerification_ = report;
+		return report.isVerified();
+	}
+
 	public boolean setTTLState(int channel, boolean state) {
 		if(connected_ && channel >= 0 && channel < getNumberTTLs()) {
-			return ttls_.get(channel).setState( state ? TTL.ON : TTL.OFF );
+			return verify(ttls_.get(channel).setState( state ? TTL.ON : TTL.OFF ), Signal.ADDR_TTL + channel);
 		}
 		return false;
 	}
@@ -123,7 +262,9 @@ public class MicroFPGAController {
 	
 	public boolean setPWMState(int channel, int state) {
 		if(connected_ && channel >= 0 && channel < getNumberPWMs()) {
-			return pwms_.get(channel).setState( state );
+			PWM pwm = pwms_.get(channel);
+			boolean b = pwm.setState( state );
+			return pwm.isCoalescing() ? b : verify(b, Signal.ADDR_PWM + channel);
 		}
 		return false;
 	}
@@ -137,7 +278,9 @@ public class MicroFPGAController {
 	
 	public boolean setServoState(int channel, int state) {
 		if(connected_ && channel >= 0 && channel < getNumberServos()) {
-			return servos_.get(channel).setState( state );
+			Servo servo = servos_.get(channel);
+			boolean b = servo.setState( state );
+			return servo.isCoalescing() ? b : verify(b, Signal.ADDR_SERVO + channel);
 		}
 		return false;
 	}
@@ -149,6 +292,43 @@ public class MicroFPGAController {
 		return -1;
 	}
 
+	/**
+	 * Enables the coalescing of the writes of a PWM channel, see {@link Signal#setCoalescing(boolean)}.
+	 * Coalescing requires a controller built on a concurrent register interface.
+	 */
+	public boolean setPWMCoalescing(int channel, boolean coalescing) {
+		if(connected_ && channel >= 0 && channel < getNumberPWMs()) {
+			pwms_.get(channel).setCoalescing(coalescing);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Enables the coalescing of the writes of a servo, see {@link Signal#setCoalescing(boolean)}.
+	 * Coalescing requires a controller built on a concurrent register interface.
+	 */
+	public boolean setServoCoalescing(int channel, boolean coalescing) {
+		if(connected_ && channel >= 0 && channel < getNumberServos()) {
+			servos_.get(channel).setCoalescing(coalescing);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sends the coalesced writes still delayed. Until then, the state returned by the
+	 * getters of a coalescing channel can be older than the last state set.
+	 *
+	 * @return True if the writes were sent.
+	 */
+	public boolean flush() {
+		if(connected_) {
+			return regint_.flush();
+		}
+		return false;
+	}
+
 	public int getAnalogInputState(int channel){
 		if(connected_ && channel >= 0 && channel < getNumberAIs()) {
 			return ais_.get(channel).getState();
@@ -156,13 +336,104 @@ public class MicroFPGAController {
 		return -1;
 	}
 
+	/**
+	 * Creates a sampler polling all analog inputs at a fixed rate on a dedicated
+	 * thread. The sampler must be started and stopped by the caller.
+	 *
+	 * @param rateHz Sampling rate in Hz.
+	 * @param capacity Number of samples held by the ring buffer.
+	 * @return Sampler, or null if not connected, if no analog input is available or
+	 * if the register interface is not thread-safe.
+	 */
+	public AnalogInputSampler createAnalogInputSampler(double rateHz, int capacity){
+		if(connected_ && isThreadSafe() && getNumberAIs() > 0) {
+			return new AnalogInputSampler(ais_, rateHz, capacity);
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a player of timelines, i.e. of register writes scheduled at given
+	 * times during an acquisition.
+	 *
+	 * @return Timeline player, or null if not connected or if the register interface
+	 * is not thread-safe.
+	 */
+	public TimelinePlayer createTimelinePlayer(){
+		if(connected_ && isThreadSafe()) {
+			return new TimelinePlayer(regint_);
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a streamer of laser sequences longer than 16 frames.
+	 *
+	 * @return Sequence streamer, or null if not connected or if the register
+	 * interface is not thread-safe.
+	 */
+	public SequenceStreamer createSequenceStreamer(){
+		if(connected_ && isThreadSafe()) {
+			return new SequenceStreamer(regint_);
+		}
+		return null;
+	}
+
 	public boolean setLaserParameters(int channel, LaserParameters p) {
-		if (connected_ && channel >= 0 && channel < getNumberLasers()) {
-			lasers_.get(channel).setParameters(p);
+		if (connected_ && p != null && p.getMode() != null && channel >= 0 && channel < getNumberLasers()) {
+			return verify(lasers_.get(channel).setParameters(p),
+					Signal.ADDR_MODE + channel, Signal.ADDR_DURA + channel, Signal.ADDR_SEQ + channel);
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the parameters of the first params.length lasers using burst writes.
+	 *
+	 * @param params Laser parameters, indexed by channel.
+	 * @return True if the parameters were sent, false otherwise.
+	 */
+	public boolean setLaserParameters(LaserParameters[] params) {
+		if (connected_ && params != null && params.length > 0 && params.length <= getNumberLasers()) {
+			return verify(LaserTrigger.setParameters(regint_, params), laserAddresses(params.length, 0));
+		}
+		return false;
+	}
+
+	/**
+	 * Applies laser and camera parameters prepared beforehand in a single write.
+	 *
+	 * @param params Prepared parameters.
+	 * @return True if the parameters were sent, false otherwise or if they include
+	 * more lasers than the controller or camera parameters without camera.
+	 */
+	public boolean applyParameters(PreparedParameters params) {
+		if (connected_ && params != null && params.getNumberLasers() <= getNumberLasers()
+				&& (!params.hasCameraParameters() || cam_ != null)) {
+			int n = params.getNumberLasers();
+			int[] addresses = laserAddresses(n, params.hasCameraParameters() ? 4 : 0);
+			for(int i=3 * n; i<addresses.length; i++) {
+				addresses[i] = Signal.ADDR_CAM_PULSE + i - 3 * n;
+			}
+			return verify(params.apply(regint_), addresses);
 		}
 		return false;
 	}
 
+	/**
+	 * @return Mode, duration and sequence addresses of lasers 0 to n-1, followed by
+	 * extra unset elements.
+	 */
+	private static int[] laserAddresses(int n, int extra) {
+		int[] addresses = new int[3 * n + extra];
+		for(int i=0; i<n; i++) {
+			addresses[i] = Signal.ADDR_MODE + i;
+			addresses[n + i] = Signal.ADDR_DURA + i;
+			addresses[2 * n + i] = Signal.ADDR_SEQ + i;
+		}
+		return addresses;
+	}
+
 	public String getLaserParametersPretty(int channel){
 		if(connected_ && channel >= 0 && channel < getNumberLasers()) {
 			return lasers_.get(channel).getParametersPretty();
@@ -179,7 +450,7 @@ public class MicroFPGAController {
 
 	public boolean setLaserModeState(int channel, int state) {
 		if(connected_ && channel >= 0 && channel < getNumberLasers()) {
-			return lasers_.get(channel).setMode(state);
+			return verify(lasers_.get(channel).setMode(state), Signal.ADDR_MODE + channel);
 		}
 		return false;
 	}
@@ -193,7 +464,7 @@ public class MicroFPGAController {
 	
 	public boolean setLaserDurationState(int channel, int state) {
 		if(connected_ && channel >= 0 && channel < getNumberLasers()) {
-			return lasers_.get(channel).setDuration(state);
+			return verify(lasers_.get(channel).setDuration(state), Signal.ADDR_DURA + channel);
 		}
 		return false;
 	}
@@ -207,7 +478,7 @@ public class MicroFPGAController {
 	
 	public boolean setLaserSequenceState(int channel, int state) {
 		if(connected_ && channel >= 0 && channel < getNumberLasers()) {
-			return lasers_.get(channel).setSequence(state);
+			return verify(lasers_.get(channel).setSequence(state), Signal.ADDR_SEQ + channel);
 		}
 		return false;
 	}
@@ -245,7 +516,8 @@ public class MicroFPGAController {
 	}
 
 	public boolean setCameraTriggerParameters(CameraParameters p){
-		if(connected_ && cam_ != null) return cam_.setParameters(p);
+		if(connected_ && cam_ != null) return verify(cam_.setParameters(p), Signal.ADDR_CAM_PULSE,
+				Signal.ADDR_CAM_READOUT, Signal.ADDR_CAM_EXPO, Signal.ADDR_LASER_DELAY);
 		else return false;
 	}
 
@@ -260,6 +532,58 @@ public class MicroFPGAController {
 		else return "Camera not instantiated.";
 	}
 
+	/**
+	 * Reads all registers, from {@link Signal#ADDR_MODE} to the last analog input,
+	 * in a single burst. The value of each register is stored at the index
+	 * corresponding to its address.
+	 *
+	 * @param image Array of length at least {@link Signal#NM_REGISTERS}, reused between calls.
+	 * @return True if the registers were read, false otherwise.
+	 */
+	public boolean snapshot(int[] image){
+		if(connected_ && image != null && image.length >= Signal.NM_REGISTERS) {
+			return regint_.readBurst(Signal.ADDR_MODE, image, Signal.ADDR_MODE, Signal.NM_REGISTERS, Priority.BULK);
+		}
+		return false;
+	}
+
+	public int[] snapshot(){
+		int[] image = new int[Signal.NM_REGISTERS];
+		if(snapshot(image)) return image;
+		return null;
+	}
+
+	/**
+	 * Enables answering the getters of host-written registers (lasers, TTLs, PWMs,
+	 * servos and camera sync) from the last value written, instead of querying the
+	 * board. Analog inputs are always read from the board. When enabled, laser and
+	 * camera parameters are also compared to the last known values and only the
+	 * registers that changed are written.
+	 *
+	 * @param enabled True to enable the shadow registers.
+	 */
+	public void setShadowCacheEnabled(boolean enabled){
+		regint_.setShadowEnabled(enabled);
+	}
+
+	public boolean isShadowCacheEnabled(){
+		return regint_.isShadowEnabled();
+	}
+
+	/**
+	 * Returns a snapshot of the number of accesses, errors and latency of the
+	 * communication with the board, by register address and by device type.
+	 *
+	 * @return Metrics accumulated since the connection or the last reset.
+	 */
+	public MicroFPGAMetrics getMetrics(){
+		return new MicroFPGAMetrics(regint_.getMetrics().snapshot());
+	}
+
+	public void resetMetrics(){
+		regint_.getMetrics().reset();
+	}
+
 	public String getID() {
 		if(connected_) {
 			switch(id_){
@@ -0,0 +1,115 @@
+package de.embl.rieslab.microfpga;
+
+import de.embl.rieslab.microfpga.devices.DeviceType;
+import de.embl.rieslab.microfpga.regint.Priority;
+import de.embl.rieslab.microfpga.regint.RegisterMetrics;
+
+/**
+ * Snapshot of the register interface metrics, by register address and by
+ * device type.
+ */
+public class MicroFPGAMetrics {
+
+	private final RegisterMetrics.Snapshot snapshot_;
+
+	protected MicroFPGAMetrics(RegisterMetrics.Snapshot snapshot) {
+		snapshot_ = snapshot;
+	}
+
+	/**
+	 * @return Per-address metrics.
+	 */
+	public RegisterMetrics.Snapshot getRegisterMetrics() {
+		return snapshot_;
+	}
+
+	public long getReadCount(DeviceType type) {
+		return snapshot_.getReadCount(type.getFirstAddress(), type.getNumberRegisters());
+	}
+
+	public long getWriteCount(DeviceType type) {
+		return snapshot_.getWriteCount(type.getFirstAddress(), type.getNumberRegisters());
+	}
+
+	public long getErrorCount(DeviceType type) {
+		return snapshot_.getErrorCount(type.getFirstAddress(), type.getNumberRegisters());
+	}
+
+	public long[] getLatencyHistogram(DeviceType type) {
+		return snapshot_.getLatencyHistogram(type.getFirstAddress(), type.getNumberRegisters());
+	}
+
+	public long getLatencyPercentileNanos(DeviceType type, double percentile) {
+		return snapshot_.getLatencyPercentileNanos(type.getFirstAddress(), type.getNumberRegisters(), percentile);
+	}
+
+	public long getTransactionCount() {
+		return snapshot_.getTransactionCount();
+	}
+
+	public long getFailedTransactionCount() {
+		return snapshot_.getFailedTransactionCount();
+	}
+
+	public long getBytesSent() {
+		return snapshot_.getBytesSent();
+	}
+
+	public long getBytesReceived() {
+		return snapshot_.getBytesReceived();
+	}
+
+	public long getDurationNanos() {
+		return snapshot_.getDurationNanos();
+	}
+
+	/**
+	 * Returns the number of commands served from a priority lane. Queue waits are
+	 * only recorded when the controller uses a concurrent register interface.
+	 *
+	 * @param priority Priority lane.
+	 * @return Number of commands.
+	 */
+	public long getQueueWaitCount(Priority priority) {
+		return snapshot_.getQueueWaitCount(priority);
+	}
+
+	public double getMeanQueueWaitNanos(Priority priority) {
+		return snapshot_.getMeanQueueWaitNanos(priority);
+	}
+
+	public long getMaxQueueWaitNanos(Priority priority) {
+		return snapshot_.getMaxQueueWaitNanos(priority);
+	}
+
+	public long getQueueWaitPercentileNanos(Priority priority, double percentile) {
+		return snapshot_.getQueueWaitPercentileNanos(priority, percentile);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("[Transactions: ").append(getTransactionCount())
+				.append(" (").append(getFailedTransactionCount()).append(" failed), ")
+				.append("Sent: ").append(getBytesSent()).append(" B, ")
+				.append("Received: ").append(getBytesReceived()).append(" B");
+
+		for(DeviceType t: DeviceType.values()) {
+			sb.append(", ").append(t).append(": ")
+					.append(getReadCount(t)).append(" reads, ")
+					.append(getWriteCount(t)).append(" writes, ")
+					.append(getErrorCount(t)).append(" errors, p99 < ")
+					.append(getLatencyPercentileNanos(t, 99) / 1000.).append(" us");
+		}
+		for(Priority p: Priority.values()) {
+			if(getQueueWaitCount(p) > 0) {
+				sb.append(", ").append(p).append(" queue wait: mean ")
+						.append(getMeanQueueWaitNanos(p) / 1000.).append(" us, max ")
+						.append(getMaxQueueWaitNanos(p) / 1000.).append(" us");
+			}
+		}
+		sb.append("]");
+
+		return sb.toString();
+	}
+}
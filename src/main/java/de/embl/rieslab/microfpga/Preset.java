@@ -0,0 +1,71 @@
+package de.embl.rieslab.microfpga;
+
+import java.util.Arrays;
+
+import de.embl.rieslab.microfpga.devices.Signal;
+
+/**
+ * Immutable state of all host-written registers of a board: lasers, TTLs, servos,
+ * PWMs and camera sync. The camera start trigger is not part of a preset, so that
+ * switching presets never starts or stops an acquisition.
+ */
+public final class Preset {
+
+	/**
+	 * Number of registers held by a preset, from {@link Signal#ADDR_MODE}.
+	 */
+	public static final int NM_REGISTERS = Signal.ADDR_ANALOG_INPUT;
+
+	private final int[] values_;
+
+	/**
+	 * @param values Register values from {@link Signal#ADDR_MODE}, at least {@link #NM_REGISTERS}.
+	 * @throws IllegalArgumentException If there are too few values or a value is out
+	 * of the range of its register.
+	 */
+	public Preset(int[] values) {
+		if(values.length < NM_REGISTERS)
+			throw new IllegalArgumentException("At least "+NM_REGISTERS+" values expected.");
+		for(int a=0; a<NM_REGISTERS; a++) {
+			checkValue(a, values[a]);
+		}
+		values_ = Arrays.copyOf(values, NM_REGISTERS);
+	}
+
+	/**
+	 * @param address Register address.
+	 * @return Value of the register in the preset.
+	 */
+	public int getValue(int address) {
+		return values_[address];
+	}
+
+	/**
+	 * Returns a copy of the preset with one register changed.
+	 *
+	 * @param address Register address.
+	 * @param value New value, between 0 and {@link Signal#getMaxValue(int)}.
+	 * @return New preset.
+	 * @throws IllegalArgumentException If the register is not part of a preset or the
+	 * value is out of its range.
+	 */
+	public Preset withValue(int address, int value) {
+		if(address < 0 || address >= NM_REGISTERS || address == Signal.ADDR_START_TRIGGER)
+			throw new IllegalArgumentException("Address "+address+" is not part of a preset.");
+		checkValue(address, value);
+
+		int[] values = Arrays.copyOf(values_, NM_REGISTERS);
+		values[address] = value;
+		return new Preset(values);
+	}
+
+	int[] getValues() {
+		return values_;
+	}
+
+	private static void checkValue(int address, int value) {
+		if(!Signal.isAllowed(address, value))
+			throw new IllegalArgumentException("Value "+value+" out of range for register "+address
+					+" (0 to "+Signal.getMaxValue(address)+").");
+	}
+}
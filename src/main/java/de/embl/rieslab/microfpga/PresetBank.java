@@ -0,0 +1,136 @@
+package de.embl.rieslab.microfpga;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.embl.rieslab.microfpga.devices.Signal;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+
+/**
+ * Named presets of a board, e.g. "widefield 488" or "dark", each holding the state
+ * of all lasers, TTLs, servos, PWMs and camera sync (see {@link Preset}).
+ *
+ * Switching to a preset only writes the registers that differ from the last known
+ * state (the shadow registers of the {@link RegisterInterface}), grouped in bursts
+ * and sent in a single transport write. Comparing and writing form a single
+ * operation of the register interface, so that concurrent writes cannot make the
+ * comparison stale. The returned {@link PresetSwitchReport}
+ * gives the latency and the number of bytes sent, to check that mode changes fit
+ * within a camera frame.
+ */
+public class PresetBank {
+
+	// registers of a preset, the start trigger excepted
+	private static final int[] ADDRESSES = buildAddresses();
+
+	private final MicroFPGAController controller_;
+	private final RegisterInterface regint_;
+	private final Map<String, Preset> presets_ = new LinkedHashMap<>();
+
+	protected PresetBank(MicroFPGAController controller, RegisterInterface regint) {
+		controller_ = controller;
+		regint_ = regint;
+	}
+
+	/**
+	 * Reads the current state of the board and stores it as a preset.
+	 *
+	 * @param name Name of the preset, replacing any preset with the same name.
+	 * @return Preset, or null if the board could not be read or answered a value out
+	 * of the range of its register, such as {@link Signal#ERROR_UNKNOWN_COMMAND}.
+	 */
+	public Preset capture(String name) {
+		if(!controller_.isConnected())
+			return null;
+
+		int[] values = new int[Preset.NM_REGISTERS];
+		if(!regint_.readBurst(Signal.ADDR_MODE, values, 0, values.length))
+			return null;
+		for(int a=0; a<values.length; a++) {
+			if(!Signal.isAllowed(a, values[a]))
+				return null;
+		}
+
+		Preset preset = new Preset(values);
+		put(name, preset);
+		return preset;
+	}
+
+	public synchronized void put(String name, Preset preset) {
+		presets_.put(name, preset);
+	}
+
+	public synchronized Preset get(String name) {
+		return presets_.get(name);
+	}
+
+	public synchronized Preset remove(String name) {
+		return presets_.remove(name);
+	}
+
+	public synchronized List<String> getNames() {
+		return new ArrayList<>(presets_.keySet());
+	}
+
+	/**
+	 * Switches the board to a stored preset.
+	 *
+	 * @param name Name of the preset.
+	 * @return Report of the switch, or null if there is no preset with this name.
+	 */
+	public PresetSwitchReport apply(String name) {
+		Preset preset = get(name);
+		if(preset == null)
+			return null;
+		return apply(name, preset);
+	}
+
+	/**
+	 * Switches the board to a preset, writing only the registers that changed.
+	 *
+	 * @param name Name used in the report.
+	 * @param preset Preset.
+	 * @return Report of the switch.
+	 */
+	public PresetSwitchReport apply(String name, Preset preset) {
+		long t0 = System.nanoTime();
+		if(!controller_.isConnected())
+			return new PresetSwitchReport(name, false, 0, 0, 0);
+
+		int[] presetValues = preset.getValues();
+		int[] values = new int[ADDRESSES.length];
+		for(int i=0; i<ADDRESSES.length; i++) {
+			values[i] = presetValues[ADDRESSES[i]];
+		}
+		byte[] frames = new byte[ADDRESSES.length * RegisterInterface.WRITE_FRAME_LENGTH];
+
+		int sent = regint_.writeDiff(ADDRESSES, values, ADDRESSES.length, frames);
+		boolean ok = sent >= 0;
+
+		return new PresetSwitchReport(name, ok, ok ? sent : 0, ok ? countFrames(frames, sent) : 0,
+				System.nanoTime() - t0);
+	}
+
+	private static int[] buildAddresses() {
+		int[] addresses = new int[Preset.NM_REGISTERS - 1];
+		int n = 0;
+		for(int a=Signal.ADDR_MODE; a<Preset.NM_REGISTERS; a++) {
+			if(a != Signal.ADDR_START_TRIGGER)
+				addresses[n++] = a;
+		}
+		return addresses;
+	}
+
+	private static int countFrames(byte[] frames, int length) {
+		int n = 0;
+		int pos = 0;
+		while(pos < length) {
+			int words = (frames[pos] & 0x3F) + 1;
+			pos += RegisterInterface.HEADER_LENGTH + 4 * words;
+			n++;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,59 @@
+package de.embl.rieslab.microfpga;
+
+/**
+ * Outcome of switching to a preset: whether it succeeded, how long it took and
+ * how much was sent to the board.
+ */
+public class PresetSwitchReport {
+
+	private final String name_;
+	private final boolean success_;
+	private final int bytesSent_;
+	private final int frames_;
+	private final long nanos_;
+
+	protected PresetSwitchReport(String name, boolean success, int bytesSent, int frames, long nanos) {
+		name_ = name;
+		success_ = success;
+		bytesSent_ = bytesSent;
+		frames_ = frames;
+		nanos_ = nanos;
+	}
+
+	public String getName() {
+		return name_;
+	}
+
+	public boolean isSuccess() {
+		return success_;
+	}
+
+	/**
+	 * @return Number of bytes sent, 0 if the preset was already applied.
+	 */
+	public int getBytesSent() {
+		return bytesSent_;
+	}
+
+	/**
+	 * @return Number of write frames (single or burst) sent.
+	 */
+	public int getNumberFrames() {
+		return frames_;
+	}
+
+	/**
+	 * @return Time spent computing and sending the writes, in ns.
+	 */
+	public long getLatencyNanos() {
+		return nanos_;
+	}
+
+	@Override
+	public String toString() {
+		return "[Preset: "+name_+(success_ ? "" : " (failed)")
+				+", frames: "+frames_
+				+", sent: "+bytesSent_+" B"
+				+", latency: "+nanos_/1000.+" us]";
+	}
+}
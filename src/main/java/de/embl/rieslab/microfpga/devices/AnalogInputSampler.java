@@ -0,0 +1,164 @@
+package de.embl.rieslab.microfpga.devices;
+
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import de.embl.rieslab.microfpga.regint.Priority;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+
+/**
+ * Polls a set of analog inputs at a fixed rate from a dedicated thread, and stores
+ * the measurements in a {@link SampleRingBuffer}. Contiguous channels are read
+ * with a single burst, otherwise with a pipelined read.
+ *
+ * The sampler shares the register interface with the other devices: if the board
+ * is accessed from other threads while sampling, the register interface must be
+ * thread-safe (see {@link de.embl.rieslab.microfpga.regint.ConcurrentRegisterInterface}).
+ */
+public class AnalogInputSampler {
+
+	private final RegisterInterface regInt_;
+	private final int[] channels_;
+	private final int[] addresses_;
+	private final int[] results_;
+	private final boolean contiguous_;
+	private final long periodNanos_;
+	private final SampleRingBuffer buffer_;
+
+	private volatile Thread thread_;
+	private volatile boolean running_;
+	private volatile long failures_;
+	private volatile long overruns_;
+
+	/**
+	 * @param ais Analog inputs to sample.
+	 * @param rateHz Sampling rate of each channel in Hz.
+	 * @param capacity Number of samples the ring buffer can hold.
+	 */
+	public AnalogInputSampler(List<AnalogInput> ais, double rateHz, int capacity) {
+		if(ais.isEmpty())
+			throw new IllegalArgumentException("No analog input to sample.");
+		if(rateHz <= 0)
+			throw new IllegalArgumentException("Sampling rate must be positive.");
+
+		regInt_ = ais.get(0).regInt_;
+
+		channels_ = new int[ais.size()];
+		addresses_ = new int[ais.size()];
+		results_ = new int[ais.size()];
+
+		boolean contiguous = true;
+		for(int i=0; i<ais.size(); i++) {
+			channels_[i] = ais.get(i).getID();
+			addresses_[i] = ais.get(i).getBaseAddress() + ais.get(i).getID();
+
+			if(i > 0 && addresses_[i] != addresses_[i-1] + 1)
+				contiguous = false;
+		}
+		contiguous_ = contiguous;
+
+		periodNanos_ = (long) (1e9 / rateHz);
+		buffer_ = new SampleRingBuffer(capacity);
+	}
+
+	public synchronized void start() {
+		if(thread_ != null)
+			return;
+
+		running_ = true;
+		Thread t = new Thread(this::run, "MicroFPGA analog input sampler");
+		t.setDaemon(true);
+		thread_ = t;
+		t.start();
+	}
+
+	public synchronized void stop() {
+		Thread t = thread_;
+		if(t == null)
+			return;
+
+		running_ = false;
+		LockSupport.unpark(t);
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread_ = null;
+	}
+
+	public boolean isRunning() {
+		return thread_ != null;
+	}
+
+	/**
+	 * Copies the samples acquired since the last call, oldest first. Must be called
+	 * from a single thread.
+	 *
+	 * @param times Array receiving the System.nanoTime() stamps.
+	 * @param channels Array receiving the analog input channels.
+	 * @param values Array receiving the values (0-65535).
+	 * @return Number of samples copied.
+	 */
+	public int drain(long[] times, int[] channels, int[] values) {
+		return buffer_.drain(times, channels, values);
+	}
+
+	public SampleRingBuffer getBuffer() {
+		return buffer_;
+	}
+
+	/**
+	 * @return Number of polls that failed to read the board.
+	 */
+	public long getFailureCount() {
+		return failures_;
+	}
+
+	/**
+	 * @return Number of polls that started later than one period after their schedule.
+	 */
+	public long getOverrunCount() {
+		return overruns_;
+	}
+
+	private void run() {
+		long next = System.nanoTime();
+
+		while(running_) {
+			long wait = next - System.nanoTime();
+			if(wait > 0) {
+				LockSupport.parkNanos(this, wait);
+				continue;
+			}
+
+			if(-wait > periodNanos_) {
+				// too late, skip the missed polls
+				overruns_++;
+				next = System.nanoTime();
+			}
+
+			poll();
+			next += periodNanos_;
+		}
+	}
+
+	private void poll() {
+		boolean b;
+		if(contiguous_) {
+			b = regInt_.readBurst(addresses_[0], results_, 0, results_.length, Priority.BULK);
+		} else {
+			b = regInt_.read(addresses_, results_, Priority.BULK);
+		}
+
+		if(!b) {
+			failures_++;
+			return;
+		}
+
+		long time = System.nanoTime();
+		for(int i=0; i<results_.length; i++) {
+			buffer_.put(time, channels_[i], results_[i]);
+		}
+	}
+}
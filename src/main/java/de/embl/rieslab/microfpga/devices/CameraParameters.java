@@ -68,10 +68,10 @@ public class CameraParameters {
     public void setDelayMs(double delayMs){
         delay_ = (int) (delayMs*1000+0.5);
 
-        if(pulse_ > CameraSync.Exposure.MAX) {
-            pulse_ = CameraSync.Exposure.MAX;
-        } else if(pulse_ < 0){
-            pulse_ = 0;
+        if(delay_ > CameraSync.Delay.MAX) {
+            delay_ = CameraSync.Delay.MAX;
+        } else if(delay_ < 0){
+            delay_ = 0;
         }
     }
 
@@ -101,6 +101,14 @@ public class CameraParameters {
         return map;
     }
 
+    protected int getPulse(){return pulse_;}
+
+    protected int getReadout(){return readout_;}
+
+    protected int getExposure(){return exposure_;}
+
+    protected int getDelay(){return delay_;}
+
     protected HashMap<String, Integer> getIntValues(){
         HashMap map = new HashMap<String, Double>(4);
 
@@ -1,9 +1,8 @@
 package de.embl.rieslab.microfpga.devices;
 
+import de.embl.rieslab.microfpga.regint.Priority;
 import de.embl.rieslab.microfpga.regint.RegisterInterface;
 
-import java.util.HashMap;
-
 public class CameraSync {
 
     public enum TriggerSyncMode {
@@ -29,7 +28,7 @@ public class CameraSync {
         }
     }
 
-    private static CameraSync cameraSync;
+    private final RegisterInterface regInt_;
     private final SyncMode syncSyncMode_;
     private final Start start_;
     private final Pulse pulse_;
@@ -37,7 +36,14 @@ public class CameraSync {
     private final Exposure exposure_;
     private final Delay delay_;
 
-    private CameraSync(RegisterInterface regInt){
+    /**
+     * Creates the camera sync of the board behind a register interface. There must
+     * be a single camera sync per board, obtained from its {@link DeviceFactory}.
+     *
+     * @param regInt Register interface of the board.
+     */
+    CameraSync(RegisterInterface regInt){
+        regInt_ = regInt;
         syncSyncMode_ = new SyncMode(regInt);
         start_ = new Start(regInt);
         pulse_ = new Pulse(regInt);
@@ -46,13 +52,6 @@ public class CameraSync {
         delay_ = new Delay(regInt);
     }
 
-    public static CameraSync getInstance(RegisterInterface regInt){
-        if(cameraSync == null){
-            cameraSync = new CameraSync(regInt);
-        }
-        return cameraSync;
-    }
-
     public boolean setActiveSync(){
         return syncSyncMode_.setSyncMode(TriggerSyncMode.ACTIVE);
     }
@@ -72,20 +71,20 @@ public class CameraSync {
     }
 
     public boolean setParameters(CameraParameters params){
-        HashMap<String, Integer> map = params.getIntValues();
+        // the pulse, readout, exposure and delay registers are contiguous
+        int[] values = new int[]{
+                params.getPulse(),
+                params.getReadout(),
+                params.getExposure(),
+                params.getDelay()
+        };
 
-        boolean b = pulse_.setState(map.get(CameraParameters.KEY_PULSE));
-        if(!b) return false;
-
-        b = readout_.setState(map.get(CameraParameters.KEY_READOUT));
-        if(!b) return false;
-
-        b = exposure_.setState(map.get(CameraParameters.KEY_EXPOSURE));
-        if(!b) return false;
-
-        b = delay_.setState(map.get(CameraParameters.KEY_DELAY));
+        if(!pulse_.isValueAllowed(values[0]) || !readout_.isValueAllowed(values[1])
+                || !exposure_.isValueAllowed(values[2]) || !delay_.isValueAllowed(values[3])) {
+            return false;
+        }
 
-        return b;
+        return regInt_.writeChanged(Signal.ADDR_CAM_PULSE, values, 0, values.length);
     }
 
     public CameraParameters getParameters(){
@@ -120,7 +119,7 @@ public class CameraSync {
         }
 
         public int getSyncMode(){
-            return regInt_.read(getBaseAddress());
+            return regInt_.readShadowed(getBaseAddress());
         }
 
         @Override
@@ -141,11 +140,11 @@ public class CameraSync {
         public int getMax() {return MAX;}
 
         public boolean start() {
-            return regInt_.write(getBaseAddress(), 1);
+            return regInt_.write(getBaseAddress(), 1, Priority.URGENT);
         }
 
         public boolean stop() {
-            return regInt_.write(getBaseAddress(), 0);
+            return regInt_.write(getBaseAddress(), 0, Priority.URGENT);
         }
 
         @Override
@@ -55,10 +55,14 @@ public class DeviceFactory {
 		return null;
 	}
 
+	/**
+	 * @return The camera sync of the board, or null if it was already created by
+	 * this factory.
+	 */
 	public CameraSync getCameraTrigger(){
 		if(counterCamera_ < 1){
 			counterCamera_++;
-			return CameraSync.getInstance(regInt_);
+			return new CameraSync(regInt_);
 		}
 		return null;
 	}
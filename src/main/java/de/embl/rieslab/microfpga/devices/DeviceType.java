@@ -0,0 +1,46 @@
+package de.embl.rieslab.microfpga.devices;
+
+/**
+ * Type of device, with the range of registers it occupies.
+ */
+public enum DeviceType {
+    LASER_TRIGGER(Signal.ADDR_MODE, Signal.ADDR_TTL - Signal.ADDR_MODE),
+    TTL(Signal.ADDR_TTL, Signal.NM_TTL),
+    SERVO(Signal.ADDR_SERVO, Signal.NM_SERVO),
+    PWM(Signal.ADDR_PWM, Signal.NM_PWM),
+    CAMERA_SYNC(Signal.ADDR_ACTIVE_SYNC, Signal.ADDR_ANALOG_INPUT - Signal.ADDR_ACTIVE_SYNC),
+    ANALOG_INPUT(Signal.ADDR_ANALOG_INPUT, Signal.NM_AI);
+
+    private final int firstAddress_;
+    private final int count_;
+
+    DeviceType(int firstAddress, int count){
+        firstAddress_ = firstAddress;
+        count_ = count;
+    }
+
+    public int getFirstAddress(){
+        return firstAddress_;
+    }
+
+    public int getNumberRegisters(){
+        return count_;
+    }
+
+    public boolean contains(int address){
+        return address >= firstAddress_ && address < firstAddress_ + count_;
+    }
+
+    /**
+     * Returns the type of device owning a register.
+     *
+     * @param address Register address.
+     * @return Device type, or null if the address does not belong to a device.
+     */
+    public static DeviceType getType(int address){
+        for(DeviceType t: values()){
+            if(t.contains(address)) return t;
+        }
+        return null;
+    }
+}
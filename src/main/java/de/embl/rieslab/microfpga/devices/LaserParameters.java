@@ -48,7 +48,11 @@ public class LaserParameters {
 
     public String getFormattedSequence(){return LaserTrigger.stringSequence(sequence_);}
 
-    protected int getSequence(){return sequence_;}
+    /**
+     * @return Sequence as a 16-bit integer, the most significant bit corresponding
+     * to the first frame.
+     */
+    public int getSequence(){return sequence_;}
 
     public void setValues(LaserTriggerMode mode, int duration, String sequence){
         setMode(mode);
@@ -1,32 +1,86 @@
 package de.embl.rieslab.microfpga.devices;
 
+import de.embl.rieslab.microfpga.regint.Priority;
 import de.embl.rieslab.microfpga.regint.RegisterInterface;
 
 public class LaserTrigger {
 
+	// frames of the batch setParameters, reused by each calling thread
+	private static final ThreadLocal<Frames> BATCH_FRAMES =
+			ThreadLocal.withInitial(() -> new Frames(3 * Signal.NM_LASER));
+
 	private final int id_;
+	private final RegisterInterface regint_;
 	private final Mode mode_;
 	private final Duration duration_;
 	private final Sequence sequence_;
+	private final Frames frames_ = new Frames(3);
 
 	protected LaserTrigger(int id, RegisterInterface regint) {
 		id_ = id;
+		regint_ = regint;
 
 		mode_ = new Mode(id_, regint);
 		duration_ = new Duration(id_, regint);
 		sequence_ = new Sequence(id_, regint);
+
+		frames_.addresses_[0] = mode_.getBaseAddress()+id_;
+		frames_.addresses_[1] = duration_.getBaseAddress()+id_;
+		frames_.addresses_[2] = sequence_.getBaseAddress()+id_;
 	}
 
-	public boolean setParameters(LaserParameters p){
-		boolean b = mode_.setTriggerMode(p.getMode());
-		if(!b) return false;
+	/**
+	 * Sets the mode, duration and sequence of the laser in a single transport write.
+	 * If the register interface shadow registers are enabled, only the values that
+	 * changed are written.
+	 *
+	 * @param p Laser parameters.
+	 * @return True if the values were sent, false otherwise.
+	 */
+	public synchronized boolean setParameters(LaserParameters p){
+		int mode = p.getMode().getValue();
+		if(!duration_.isValueAllowed(p.getDuration()) || !sequence_.isValueAllowed(p.getSequence())) return false;
+
+		int[] values = frames_.values_;
+		values[0] = mode;
+		values[1] = p.getDuration();
+		values[2] = p.getSequence();
 
-		b = duration_.setState(p.getDuration());
-		if(!b) return false;
+		return frames_.write(regint_, 3, mode_.getWritePriority(mode));
+	}
 
-		b = sequence_.setState(p.getSequence());
+	/**
+	 * Sets the parameters of the lasers 0 to params.length-1 in a single transport
+	 * write, taking advantage of the contiguous mode, duration and sequence registers
+	 * to group them in bursts. If the register interface shadow registers are
+	 * enabled, only the values that changed are written.
+	 *
+	 * @param regint Register interface.
+	 * @param params Parameters, the index in the array corresponding to the laser id.
+	 * @return True if the values were sent, false otherwise.
+	 */
+	public static boolean setParameters(RegisterInterface regint, LaserParameters[] params){
+		int n = params.length;
+		if(n == 0 || n > Signal.NM_LASER) return false;
+
+		// modes, then durations, then sequences, in increasing addresses
+		Frames frames = BATCH_FRAMES.get();
+		int[] addresses = frames.addresses_;
+		int[] values = frames.values_;
+		Priority priority = Priority.NORMAL;
+		for(int i=0; i<n; i++){
+			if(params[i] == null || params[i].getMode() == null) return false;
+
+			if(params[i].getMode() == LaserTriggerMode.OFF) priority = Priority.URGENT;
+			addresses[i] = Signal.ADDR_MODE + i;
+			values[i] = params[i].getMode().getValue();
+			addresses[n + i] = Signal.ADDR_DURA + i;
+			values[n + i] = params[i].getDuration();
+			addresses[2 * n + i] = Signal.ADDR_SEQ + i;
+			values[2 * n + i] = params[i].getSequence();
+		}
 
-		return b;
+		return frames.write(regint, 3 * n, priority);
 	}
 
 	public LaserParameters getParameters(){
@@ -133,7 +187,13 @@ public class LaserTrigger {
 		public int getMax() {return MAX;}
 
 		public boolean setTriggerMode(LaserTriggerMode mode) {
-			return regInt_.write(getBaseAddress()+getID(), mode.getValue());
+			return regInt_.write(getBaseAddress()+getID(), mode.getValue(), getWritePriority(mode.getValue()));
+		}
+
+		@Override
+		protected Priority getWritePriority(int state) {
+			// switching a laser off must not wait behind polling
+			return state == LaserTriggerMode.OFF.getValue() ? Priority.URGENT : Priority.NORMAL;
 		}
 
 		@Override
@@ -179,4 +239,23 @@ public class LaserTrigger {
 			return Signal.ADDR_SEQ;
 		}
 	}
+
+	/**
+	 * Addresses, values and frame buffer of a laser parameters write, allocated once.
+	 */
+	private static final class Frames {
+		private final int[] addresses_;
+		private final int[] values_;
+		private final byte[] buffer_;
+
+		private Frames(int registers) {
+			addresses_ = new int[registers];
+			values_ = new int[registers];
+			buffer_ = new byte[registers * RegisterInterface.WRITE_FRAME_LENGTH];
+		}
+
+		private boolean write(RegisterInterface regint, int count, Priority priority) {
+			return regint.writeChanged(addresses_, values_, count, buffer_, priority);
+		}
+	}
 }
@@ -0,0 +1,130 @@
+package de.embl.rieslab.microfpga.devices;
+
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+
+/**
+ * Laser and camera parameters validated and encoded once into write frames, to be
+ * applied repeatedly, for instance when switching between a few configurations in
+ * a time-lapse loop. Applying a prepared set is a single transport write, without
+ * map lookups, boxing or encoding.
+ *
+ * Instances are immutable and can be shared between threads and boards.
+ */
+public final class PreparedParameters {
+
+    private final byte[] frames_;
+    private final int nLasers_;
+    private final boolean camera_;
+
+    private PreparedParameters(byte[] frames, int nLasers, boolean camera) {
+        frames_ = frames;
+        nLasers_ = nLasers;
+        camera_ = camera;
+    }
+
+    /**
+     * Prepares camera trigger parameters.
+     *
+     * @param camera Camera parameters.
+     * @return Prepared parameters.
+     */
+    public static PreparedParameters prepare(CameraParameters camera) {
+        return prepare(camera, new LaserParameters[0]);
+    }
+
+    /**
+     * Prepares the parameters of lasers 0 to lasers.length-1.
+     *
+     * @param lasers Laser parameters, the index corresponding to the laser id.
+     * @return Prepared parameters.
+     */
+    public static PreparedParameters prepare(LaserParameters[] lasers) {
+        return prepare(null, lasers);
+    }
+
+    /**
+     * Prepares camera trigger parameters and the parameters of lasers 0 to
+     * lasers.length-1. Each group of contiguous registers is encoded as a burst.
+     *
+     * @param camera Camera parameters, or null.
+     * @param lasers Laser parameters, the index corresponding to the laser id.
+     * @return Prepared parameters.
+     * @throws IllegalArgumentException If there are too many lasers, a laser has no mode
+     * or there are no parameters at all.
+     */
+    public static PreparedParameters prepare(CameraParameters camera, LaserParameters[] lasers) {
+        int n = lasers.length;
+        if(n > Signal.NM_LASER)
+            throw new IllegalArgumentException("At most "+Signal.NM_LASER+" lasers expected.");
+        if(n == 0 && camera == null)
+            throw new IllegalArgumentException("No parameters to prepare.");
+
+        int length = (n > 0 ? 3 * (RegisterInterface.HEADER_LENGTH + 4 * n) : 0)
+                + (camera != null ? RegisterInterface.HEADER_LENGTH + 16 : 0);
+        byte[] frames = new byte[length];
+        int pos = 0;
+
+        if(n > 0) {
+            int[] modes = new int[n];
+            int[] durations = new int[n];
+            int[] sequences = new int[n];
+            for(int i=0; i<n; i++) {
+                if(lasers[i] == null || lasers[i].getMode() == null)
+                    throw new IllegalArgumentException("Laser "+i+" has no mode.");
+
+                modes[i] = lasers[i].getMode().getValue();
+                durations[i] = clamp(lasers[i].getDuration(), LaserTrigger.Duration.MAX);
+                sequences[i] = clamp(lasers[i].getSequence(), LaserTrigger.Sequence.MAX);
+            }
+
+            pos = RegisterInterface.encodeBurstWrite(frames, pos, Signal.ADDR_MODE, modes, 0, n);
+            pos = RegisterInterface.encodeBurstWrite(frames, pos, Signal.ADDR_DURA, durations, 0, n);
+            pos = RegisterInterface.encodeBurstWrite(frames, pos, Signal.ADDR_SEQ, sequences, 0, n);
+        }
+
+        if(camera != null) {
+            // the pulse, readout, exposure and delay registers are contiguous
+            int[] values = new int[]{
+                    clamp(camera.getPulse(), CameraSync.Pulse.MAX),
+                    clamp(camera.getReadout(), CameraSync.Readout.MAX),
+                    clamp(camera.getExposure(), CameraSync.Exposure.MAX),
+                    clamp(camera.getDelay(), CameraSync.Delay.MAX)
+            };
+            RegisterInterface.encodeBurstWrite(frames, pos, Signal.ADDR_CAM_PULSE, values, 0, values.length);
+        }
+
+        return new PreparedParameters(frames, n, camera != null);
+    }
+
+    /**
+     * Writes the parameters to the board in a single call.
+     *
+     * @param regint Register interface of the board.
+     * @return True if the parameters were sent, false otherwise.
+     */
+    public boolean apply(RegisterInterface regint) {
+        return regint.writeFrames(frames_, frames_.length);
+    }
+
+    /**
+     * @return Number of lasers whose parameters are included.
+     */
+    public int getNumberLasers() {
+        return nLasers_;
+    }
+
+    public boolean hasCameraParameters() {
+        return camera_;
+    }
+
+    /**
+     * @return Number of bytes sent when applying the parameters.
+     */
+    public int size() {
+        return frames_.length;
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+}
@@ -0,0 +1,139 @@
+package de.embl.rieslab.microfpga.devices;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Preallocated ring buffer of (time, channel, value) samples, written by a single
+ * thread and drained by a single other thread without locking. When the reader
+ * falls behind by more than the capacity, the oldest samples are overwritten and
+ * counted as dropped.
+ *
+ * Each slot holds the index of its sample, invalidated while the writer reuses the
+ * slot. The reader checks it before and after copying a sample, so that a sample
+ * overwritten while being copied is never returned.
+ */
+public class SampleRingBuffer {
+
+	private static final long INVALID = -1;
+
+	// slots: index of the sample, time stamp, and channel and value packed in a long
+	private final AtomicLongArray indices_;
+	private final AtomicLongArray times_;
+	private final AtomicLongArray samples_;
+	private final int mask_;
+
+	// index of the next sample to be written, published after the sample
+	private final AtomicLong head_ = new AtomicLong();
+
+	// reader state
+	private long tail_;
+	private long dropped_;
+
+	/**
+	 * @param capacity Minimum number of samples held, rounded up to a power of two.
+	 */
+	public SampleRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+		indices_ = new AtomicLongArray(size);
+		times_ = new AtomicLongArray(size);
+		samples_ = new AtomicLongArray(size);
+		mask_ = size - 1;
+
+		for(int i=0; i<size; i++) {
+			indices_.set(i, INVALID);
+		}
+	}
+
+	public int getCapacity() {
+		return mask_ + 1;
+	}
+
+	/**
+	 * Adds a sample, to be called from the writer thread only.
+	 *
+	 * @param time Time stamp, e.g. from System.nanoTime().
+	 * @param channel Channel.
+	 * @param value Value.
+	 */
+	public void put(long time, int channel, int value) {
+		long h = head_.get();
+		int i = (int) (h & mask_);
+
+		indices_.set(i, INVALID);
+		times_.set(i, time);
+		samples_.set(i, ((long) channel << 32) | (value & 0xFFFFFFFFL));
+		indices_.set(i, h);
+
+		head_.lazySet(h + 1);
+	}
+
+	/**
+	 * Copies the available samples, oldest first, into the arrays supplied by the
+	 * caller. To be called from a single reader thread.
+	 *
+	 * @param times Array receiving the time stamps.
+	 * @param channels Array receiving the channels.
+	 * @param values Array receiving the values.
+	 * @return Number of samples copied, at most the length of the shortest array. It
+	 * can be lower than the number available if the writer caught up with the copy, in
+	 * which case the remaining samples are left for the next call.
+	 */
+	public int drain(long[] times, int[] channels, int[] values) {
+		int max = Math.min(times.length, Math.min(channels.length, values.length));
+
+		long h = head_.get();
+		skipOverwritten(h);
+
+		int n = (int) Math.min(max, h - tail_);
+		int k = 0;
+		for(; k<n; k++) {
+			long index = tail_ + k;
+			int i = (int) (index & mask_);
+			if(indices_.get(i) != index)
+				break;
+
+			long time = times_.get(i);
+			long sample = samples_.get(i);
+
+			// the writer reused the slot while we were copying
+			if(indices_.get(i) != index)
+				break;
+
+			times[k] = time;
+			channels[k] = (int) (sample >>> 32);
+			values[k] = (int) sample;
+		}
+		tail_ += k;
+
+		// the next samples were overwritten, the following ones are left for the next drain
+		if(k < n)
+			skipOverwritten(head_.get());
+
+		return k;
+	}
+
+	/**
+	 * @return Number of samples available to the reader.
+	 */
+	public int size() {
+		return (int) Math.min(getCapacity(), head_.get() - tail_);
+	}
+
+	/**
+	 * @return Number of samples overwritten before being drained.
+	 */
+	public long getDroppedCount() {
+		return dropped_;
+	}
+
+	private void skipOverwritten(long head) {
+		// a sample is considered lost as soon as the writer may be reusing its slot
+		long oldest = head - getCapacity() + 1;
+		if(tail_ < oldest) {
+			dropped_ += oldest - tail_;
+			tail_ = oldest;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package de.embl.rieslab.microfpga.devices;
 
+import de.embl.rieslab.microfpga.regint.Priority;
 import de.embl.rieslab.microfpga.regint.RegisterInterface;
 
 public abstract class Signal {
@@ -26,6 +27,8 @@ public abstract class Signal {
 
 	public static final int ADDR_ANALOG_INPUT = ADDR_LASER_DELAY + 1;
 
+	public static final int NM_REGISTERS = ADDR_ANALOG_INPUT + NM_AI;
+
 	public static final int ADDR_VERSION = 200;
 	public static final int ADDR_ID = 201;
 
@@ -37,9 +40,13 @@ public abstract class Signal {
 	public static final int ID_MOJO = 12;
 	public static final int CURRENT_VERSION = 3;
 
+	// maximum value of each register, -1 for read-only registers
+	private static final int[] MAX_VALUES = buildMaxValues();
+
 	private final boolean readOnly_;
 	private final int id_;
 	protected final RegisterInterface regInt_;
+	private volatile boolean coalescing_;
 	
 	protected Signal(int id, RegisterInterface regInt, boolean readOnly) {
 		id_ = id;
@@ -57,13 +64,54 @@ public abstract class Signal {
 	
 	public boolean setState(int state) {
 		if(!isReadOnly() && isValueAllowed(state)) {
-			return regInt_.write(getBaseAddress()+getID(), state);
+			if(coalescing_) {
+				return regInt_.writeCoalesced(getBaseAddress()+getID(), state);
+			}
+			return regInt_.write(getBaseAddress()+getID(), state, getWritePriority(state));
 		}
 		return false;
 	}
+
+	/**
+	 * Enables the coalescing of the writes of this signal: with a concurrent register
+	 * interface, states set in quick succession are delayed and only the latest one
+	 * is sent. Useful for setpoints driven by a slider. Call
+	 * {@link RegisterInterface#flush()} when the state must have been sent.
+	 *
+	 * @param coalescing True to coalesce the writes.
+	 */
+	public void setCoalescing(boolean coalescing) {
+		coalescing_ = coalescing;
+	}
+
+	public boolean isCoalescing() {
+		return coalescing_;
+	}
+
+	/**
+	 * Returns the priority with which a state is written. Signals whose state
+	 * must take effect without delay, such as switching a laser off, override it
+	 * to jump ahead of polling on a shared register interface.
+	 *
+	 * @param state State to be written.
+	 * @return Priority of the write.
+	 */
+	protected Priority getWritePriority(int state) {
+		return Priority.NORMAL;
+	}
 	
+	/**
+	 * Returns the state of the signal. Read-only signals are always read from the
+	 * board, while the others can be answered from the register interface shadow
+	 * registers if enabled.
+	 *
+	 * @return State, or -1 in case of error.
+	 */
 	public int getState() {
-		return regInt_.read(getBaseAddress() + getID());
+		if(isReadOnly()) {
+			return regInt_.read(getBaseAddress() + getID());
+		}
+		return regInt_.readShadowed(getBaseAddress() + getID());
 	}
 	
 	public abstract int getBaseAddress();
@@ -73,4 +121,52 @@ public abstract class Signal {
 	}
 
 	public abstract int getMax();
+
+	/**
+	 * @param address Register address.
+	 * @return Maximum value of the register, or -1 if it cannot be written.
+	 */
+	public static int getMaxValue(int address){
+		if(address < 0 || address >= NM_REGISTERS)
+			return -1;
+		return MAX_VALUES[address];
+	}
+
+	/**
+	 * @param address Register address.
+	 * @param value Register value.
+	 * @return True if the register can be written with this value, as checked by
+	 * {@link #isValueAllowed(int)} for the corresponding signal.
+	 */
+	public static boolean isAllowed(int address, int value){
+		return value >= 0 && value <= getMaxValue(address);
+	}
+
+	private static int[] buildMaxValues() {
+		int[] max = new int[NM_REGISTERS];
+
+		fill(max, ADDR_MODE, NM_LASER, LaserTrigger.Mode.MAX);
+		fill(max, ADDR_DURA, NM_LASER, LaserTrigger.Duration.MAX);
+		fill(max, ADDR_SEQ, NM_LASER, LaserTrigger.Sequence.MAX);
+		fill(max, ADDR_TTL, NM_TTL, TTL.ON);
+		fill(max, ADDR_SERVO, NM_SERVO, Servo.MAX);
+		fill(max, ADDR_PWM, NM_PWM, PWM.MAX);
+		max[ADDR_ACTIVE_SYNC] = CameraSync.SyncMode.MAX;
+		max[ADDR_START_TRIGGER] = CameraSync.Start.MAX;
+		max[ADDR_CAM_PULSE] = CameraSync.Pulse.MAX;
+		max[ADDR_CAM_READOUT] = CameraSync.Readout.MAX;
+		max[ADDR_CAM_EXPO] = CameraSync.Exposure.MAX;
+		max[ADDR_LASER_DELAY] = CameraSync.Delay.MAX;
+
+		// read-only
+		fill(max, ADDR_ANALOG_INPUT, NM_AI, -1);
+
+		return max;
+	}
+
+	private static void fill(int[] max, int start, int n, int value) {
+		for(int i=start; i<start+n; i++) {
+			max[i] = value;
+		}
+	}
 }
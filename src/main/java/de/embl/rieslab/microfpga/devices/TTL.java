@@ -1,5 +1,6 @@
 package de.embl.rieslab.microfpga.devices;
 
+import de.embl.rieslab.microfpga.regint.Priority;
 import de.embl.rieslab.microfpga.regint.RegisterInterface;
 
 public class TTL extends Signal {
@@ -21,4 +22,9 @@ public class TTL extends Signal {
 		return Signal.ADDR_TTL;
 	}
 
+	@Override
+	protected Priority getWritePriority(int state) {
+		return Priority.URGENT;
+	}
+
 }
@@ -0,0 +1,558 @@
+package de.embl.rieslab.microfpga.regint;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+
+/**
+ * Register interface that can be shared between threads. Each request is turned
+ * into a command and offered to a lock-free multi-producer queue, drained by a
+ * single I/O thread that owns the transport. Frames are therefore never
+ * interleaved on the link, and each caller is woken up with its own reply.
+ *
+ * There is one queue per {@link Priority}: the I/O thread always serves urgent
+ * commands first, then normal and bulk ones. An urgent request therefore waits at
+ * most for the command being served. To keep that bound low, the burst reads and
+ * writes and pipelined reads of the normal and bulk lanes are split into commands
+ * of at most {@link #getBulkChunk()} registers. Frames prepared by the caller
+ * ({@link #writeFrames(byte[], int)}) and operations that compare the shadow
+ * registers before writing, such as {@link #writeChanged(int[], int[], int, byte[])},
+ * are sent as a single command so that a configuration is never half-applied. The time spent in each queue is recorded
+ * in the {@link RegisterMetrics}.
+ *
+ * Writes made with {@link #writeCoalesced(int, int)} are not queued: the latest
+ * value of each register is kept and sent by the I/O thread at the end of the
+ * coalescing window, so that a burst of updates to the same register results in a
+ * single write. {@link #flush()} sends them immediately.
+ *
+ * Single register reads are shared: a read of an address for which a read is
+ * already queued, in the same or a more urgent lane, waits for that read instead
+ * of adding a round trip. A read is only shared until the I/O thread starts it, so
+ * that the value returned is never older than the call.
+ *
+ * The shadow registers can be read from any thread. Operations combining them with
+ * a transfer, such as {@link #restoreShadow(int, int)}, run as a single command on
+ * the I/O thread so that no other command is interleaved.
+ *
+ * The I/O thread is started by {@link #connect()} and stopped by {@link #disconnect()}.
+ */
+public class ConcurrentRegisterInterface extends RegisterInterface {
+
+	private static final long ORPHAN_CHECK_NANOS = 10000000L;
+
+	public static final int DEFAULT_BULK_CHUNK = 16;
+
+	private final ConcurrentLinkedQueue<Command> urgent_ = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<Command> normal_ = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<Command> bulk_ = new ConcurrentLinkedQueue<>();
+
+	private volatile int bulkChunk_ = DEFAULT_BULK_CHUNK;
+
+	public static final long DEFAULT_COALESCING_NANOS = 10000000L;
+
+	// latest coalesced value, whether it is pending and when it is due, per address
+	private final AtomicIntegerArray coalescedValues_ = new AtomicIntegerArray(SHADOW_SIZE);
+	private final AtomicIntegerArray coalescedPending_ = new AtomicIntegerArray(SHADOW_SIZE);
+	private final AtomicLongArray coalescedDeadlines_ = new AtomicLongArray(SHADOW_SIZE);
+	private final AtomicInteger coalescedCount_ = new AtomicInteger();
+	private final AtomicLong supersededCount_ = new AtomicLong();
+	private volatile long coalescingNanos_ = DEFAULT_COALESCING_NANOS;
+
+	// only accessed by the I/O thread
+	private final int[] flushAddresses_ = new int[SHADOW_SIZE];
+	private final int[] flushValues_ = new int[SHADOW_SIZE];
+	private final byte[] flushBuffer_ = new byte[SHADOW_SIZE * WRITE_FRAME_LENGTH];
+	private long nextDeadline_ = Long.MAX_VALUE;
+
+	// queued single read of each address, shared by concurrent readers
+	private final AtomicReferenceArray<Command> pendingReads_ = new AtomicReferenceArray<>(SHADOW_SIZE);
+	private final AtomicLong sharedReadCount_ = new AtomicLong();
+
+	private volatile Thread ioThread_;
+	private volatile boolean running_;
+
+	public ConcurrentRegisterInterface() {
+		super();
+	}
+
+	public ConcurrentRegisterInterface(Transport transport) {
+		super(transport);
+	}
+
+	@Override
+	public boolean connect() {
+		boolean b = super.connect();
+
+		if(b && ioThread_ == null) {
+			running_ = true;
+			Thread t = new Thread(this::drain, "MicroFPGA register interface");
+			t.setDaemon(true);
+			ioThread_ = t;
+			t.start();
+		}
+
+		return b;
+	}
+
+	@Override
+	public boolean disconnect() {
+		// close the transport after all pending commands and coalesced writes
+		boolean b = submit(Priority.BULK, () -> {
+			flushCoalesced(true);
+			return super.disconnect() ? 1 : 0;
+		}) == 1;
+
+		Thread t = ioThread_;
+		if(t != null) {
+			running_ = false;
+			LockSupport.unpark(t);
+			if(t != Thread.currentThread()) {
+				try {
+					t.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			ioThread_ = null;
+		}
+
+		return b;
+	}
+
+	/**
+	 * Reopens the transport as a single urgent command: the I/O thread keeps running
+	 * and other commands are served before or after, never at the same time.
+	 */
+	@Override
+	public boolean reopen(int[] addresses, int[] expected) {
+		return submit(Priority.URGENT, () -> super.reopen(addresses, expected) ? 1 : 0) == 1;
+	}
+
+	/**
+	 * Sets the maximum number of registers transferred by a single normal or bulk
+	 * command, larger transfers being split so that urgent commands can be served in
+	 * between.
+	 *
+	 * @param words Number of registers, at least 1.
+	 */
+	public void setBulkChunk(int words) {
+		if(words > 0)
+			bulkChunk_ = words;
+	}
+
+	public int getBulkChunk() {
+		return bulkChunk_;
+	}
+
+	@Override
+	public boolean write(int address, int data) {
+		return write(address, data, Priority.NORMAL);
+	}
+
+	@Override
+	public boolean write(int address, int data, Priority priority) {
+		return submit(priority, () -> {
+			// a direct write supersedes a delayed one
+			cancelCoalesced(address);
+			return super.write(address, data) ? 1 : 0;
+		}) == 1;
+	}
+
+	/**
+	 * Sets how long a coalesced write is delayed, waiting for newer values.
+	 *
+	 * @param nanos Coalescing window in ns.
+	 */
+	public void setCoalescingWindow(long nanos) {
+		coalescingNanos_ = Math.max(0, nanos);
+	}
+
+	public long getCoalescingWindow() {
+		return coalescingNanos_;
+	}
+
+	/**
+	 * @return Number of coalesced writes that were superseded by a newer value
+	 * before being sent.
+	 */
+	public long getSupersededCount() {
+		return supersededCount_.get();
+	}
+
+	@Override
+	public boolean writeCoalesced(int address, int data) {
+		Thread t = ioThread_;
+		if(t == null || address < 0 || address >= SHADOW_SIZE)
+			return write(address, data);
+
+		// the value is published before the pending flag, which the I/O thread clears
+		// before reading the value, so that the latest value is never lost
+		coalescedValues_.set(address, data);
+		if(coalescedPending_.compareAndSet(address, 0, 1)) {
+			coalescedDeadlines_.set(address, System.nanoTime() + coalescingNanos_);
+			coalescedCount_.incrementAndGet();
+			LockSupport.unpark(t);
+		} else {
+			supersededCount_.incrementAndGet();
+		}
+		return true;
+	}
+
+	@Override
+	public boolean flush() {
+		return submit(Priority.NORMAL, () -> flushCoalesced(true) ? 1 : 0) == 1;
+	}
+
+	@Override
+	public boolean writeBurst(int startAddress, int[] values, int offset, int length) {
+		int chunk = bulkChunk_;
+		if(length <= chunk || offset < 0 || offset + length > values.length)
+			return submit(Priority.NORMAL, () -> super.writeBurst(startAddress, values, offset, length) ? 1 : 0) == 1;
+
+		for(int done = 0; done < length; done += chunk) {
+			final int start = done;
+			final int n = Math.min(chunk, length - done);
+			if(submit(Priority.NORMAL, () -> super.writeBurst(startAddress + start, values, offset + start, n) ? 1 : 0) != 1)
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean write(int[] addresses, int[] values, int count, byte[] buffer) {
+		return submit(Priority.NORMAL, () -> super.write(addresses, values, count, buffer) ? 1 : 0) == 1;
+	}
+
+	@Override
+	public boolean writeChanged(int[] addresses, int[] values, int count, byte[] buffer) {
+		return writeChanged(addresses, values, count, buffer, Priority.NORMAL);
+	}
+
+	@Override
+	public boolean writeChanged(int[] addresses, int[] values, int count, byte[] buffer, Priority priority) {
+		return submit(priority, () -> super.writeChanged(addresses, values, count, buffer) ? 1 : 0) == 1;
+	}
+
+	@Override
+	public int writeDiff(int[] addresses, int[] values, int count, byte[] buffer) {
+		return writeDiff(addresses, values, count, buffer, Priority.NORMAL);
+	}
+
+	@Override
+	public int writeDiff(int[] addresses, int[] values, int count, byte[] buffer, Priority priority) {
+		return submit(priority, () -> super.writeDiff(addresses, values, count, buffer));
+	}
+
+	@Override
+	public boolean writeChanged(int startAddress, int[] values, int offset, int length) {
+		return writeChanged(startAddress, values, offset, length, Priority.NORMAL);
+	}
+
+	@Override
+	public boolean writeChanged(int startAddress, int[] values, int offset, int length, Priority priority) {
+		return submit(priority, () -> super.writeChanged(startAddress, values, offset, length) ? 1 : 0) == 1;
+	}
+
+	@Override
+	public boolean writeFrames(byte[] frames, int length) {
+		return writeFrames(frames, length, Priority.NORMAL);
+	}
+
+	@Override
+	public boolean writeFrames(byte[] frames, int length, Priority priority) {
+		// frames prepared by the caller form a whole configuration, never split
+		return submit(priority, () -> super.writeFrames(frames, length) ? 1 : 0) == 1;
+	}
+
+	@Override
+	public int restoreShadow(int startAddress, int count) {
+		return submit(Priority.URGENT, () -> super.restoreShadow(startAddress, count));
+	}
+
+	@Override
+	public int read(int address) {
+		return read(address, Priority.NORMAL);
+	}
+
+	@Override
+	public int read(int address, Priority priority) {
+		Thread t = ioThread_;
+		if(t == null || t == Thread.currentThread() || address < 0 || address >= SHADOW_SIZE)
+			return submit(priority, () -> super.read(address));
+
+		while(true) {
+			Command c = pendingReads_.get(address);
+			if(c != null && c.priority_.compareTo(priority) <= 0) {
+				if(c.join(Thread.currentThread())) {
+					sharedReadCount_.incrementAndGet();
+					return await(c, t);
+				}
+				// the read started in the meantime
+				pendingReads_.compareAndSet(address, c, null);
+				continue;
+			}
+
+			Command r = new Command(() -> super.read(address), priority, Thread.currentThread(), address);
+			if(c == null ? pendingReads_.compareAndSet(address, null, r) : pendingReads_.compareAndSet(address, c, r)) {
+				enqueue(r, t);
+				return await(r, t);
+			}
+		}
+	}
+
+	/**
+	 * @return Number of single reads that were answered by a concurrent read of the
+	 * same address instead of a round trip.
+	 */
+	public long getSharedReadCount() {
+		return sharedReadCount_.get();
+	}
+
+	@Override
+	public boolean readBurst(int startAddress, int[] dest, int offset, int count) {
+		return readBurst(startAddress, dest, offset, count, Priority.NORMAL);
+	}
+
+	@Override
+	public boolean readBurst(int startAddress, int[] dest, int offset, int count, Priority priority) {
+		int chunk = bulkChunk_;
+		if(priority == Priority.URGENT || count <= chunk) {
+			return submit(priority, () -> super.readBurst(startAddress, dest, offset, count) ? 1 : 0) == 1;
+		}
+
+		if(count <= 0 || offset < 0 || offset + count > dest.length)
+			return false;
+
+		for(int done = 0; done < count; done += chunk) {
+			final int start = done;
+			final int n = Math.min(chunk, count - done);
+			if(submit(priority, () -> super.readBurst(startAddress + start, dest, offset + start, n) ? 1 : 0) != 1)
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean read(int[] addresses, int[] results) {
+		return read(addresses, results, Priority.NORMAL);
+	}
+
+	@Override
+	public boolean read(int[] addresses, int[] results, Priority priority) {
+		int chunk = Math.min(bulkChunk_, getReadWindow());
+		if(priority == Priority.URGENT || addresses.length <= chunk) {
+			return submit(priority, () -> super.read(addresses, results) ? 1 : 0) == 1;
+		}
+
+		if(results.length < addresses.length)
+			return false;
+
+		for(int done = 0; done < addresses.length; done += chunk) {
+			final int start = done;
+			final int[] a = Arrays.copyOfRange(addresses, start, Math.min(addresses.length, start + chunk));
+			final int[] r = new int[a.length];
+			if(submit(priority, () -> super.read(a, r) ? 1 : 0) != 1)
+				return false;
+			System.arraycopy(r, 0, results, start, r.length);
+		}
+		return true;
+	}
+
+	/**
+	 * Runs an operation on the I/O thread and waits for its result. If the I/O
+	 * thread is not running, or if called from the I/O thread itself, the operation
+	 * is run directly.
+	 *
+	 * @param priority Lane of the operation.
+	 * @param operation Operation accessing the transport.
+	 * @return Result of the operation.
+	 */
+	protected int submit(Priority priority, IntSupplier operation) {
+		Thread t = ioThread_;
+		if(t == null || t == Thread.currentThread()) {
+			return operation.getAsInt();
+		}
+
+		Command c = new Command(operation, priority, Thread.currentThread(), -1);
+		enqueue(c, t);
+		return await(c, t);
+	}
+
+	private void enqueue(Command c, Thread ioThread) {
+		getQueue(c.priority_).offer(c);
+		LockSupport.unpark(ioThread);
+	}
+
+	/**
+	 * Waits for a command to be run by the I/O thread, or runs it if the I/O thread
+	 * stopped before reaching it.
+	 *
+	 * @return Result of the command.
+	 */
+	private int await(Command c, Thread ioThread) {
+		ConcurrentLinkedQueue<Command> queue = getQueue(c.priority_);
+		boolean interrupted = false;
+		while(!c.done_) {
+			LockSupport.parkNanos(this, ORPHAN_CHECK_NANOS);
+			if(Thread.interrupted())
+				interrupted = true;
+
+			// the I/O thread stopped before reaching the command
+			if(!c.done_ && !ioThread.isAlive() && queue.remove(c))
+				start(c);
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+
+		if(c.error_ != null)
+			throw c.error_;
+
+		return c.result_;
+	}
+
+	private ConcurrentLinkedQueue<Command> getQueue(Priority priority) {
+		switch (priority) {
+			case URGENT:
+				return urgent_;
+			case BULK:
+				return bulk_;
+			default:
+				return normal_;
+		}
+	}
+
+	private Command poll() {
+		Command c = urgent_.poll();
+		if(c == null)
+			c = normal_.poll();
+		if(c == null)
+			c = bulk_.poll();
+		return c;
+	}
+
+	/**
+	 * Sends the coalesced writes that are due, or all of them, in a single transport
+	 * write, and updates the next deadline. Only called from the I/O thread.
+	 *
+	 * @return True if the writes were sent.
+	 */
+	private boolean flushCoalesced(boolean all) {
+		long now = System.nanoTime();
+		long next = Long.MAX_VALUE;
+		int n = 0;
+		for(int a=0; a<SHADOW_SIZE && coalescedCount_.get() > n; a++) {
+			if(coalescedPending_.get(a) == 0)
+				continue;
+
+			long deadline = coalescedDeadlines_.get(a);
+			if(all || deadline - now <= 0) {
+				coalescedPending_.set(a, 0);
+				flushAddresses_[n] = a;
+				flushValues_[n] = coalescedValues_.get(a);
+				n++;
+			} else if(next == Long.MAX_VALUE || deadline - next < 0) {
+				next = deadline;
+			}
+		}
+		coalescedCount_.addAndGet(-n);
+		nextDeadline_ = next;
+
+		return n == 0 || super.write(flushAddresses_, flushValues_, n, flushBuffer_);
+	}
+
+	private void cancelCoalesced(int address) {
+		if(address >= 0 && address < SHADOW_SIZE && coalescedPending_.getAndSet(address, 0) == 1)
+			coalescedCount_.decrementAndGet();
+	}
+
+	private void start(Command c) {
+		// no reader can join a read once it started
+		if(c.address_ >= 0) {
+			c.close();
+			pendingReads_.compareAndSet(c.address_, c, null);
+		}
+		c.run();
+	}
+
+	private void drain() {
+		while(true) {
+			// no known deadline means new coalesced writes whose deadline must be looked up
+			if(coalescedCount_.get() > 0 &&
+					(nextDeadline_ == Long.MAX_VALUE || nextDeadline_ - System.nanoTime() <= 0))
+				flushCoalesced(false);
+
+			Command c = poll();
+			if(c == null) {
+				if(!running_)
+					break;
+
+				if(coalescedCount_.get() == 0) {
+					LockSupport.park(this);
+				} else if(nextDeadline_ != Long.MAX_VALUE) {
+					long wait = nextDeadline_ - System.nanoTime();
+					if(wait > 0)
+						LockSupport.parkNanos(this, wait);
+				}
+			} else {
+				getMetrics().recordQueueWait(c.priority_, System.nanoTime() - c.enqueueTime_);
+				start(c);
+			}
+		}
+	}
+
+	private static final class Command {
+		private final IntSupplier operation_;
+		private final Priority priority_;
+		private final Thread waiter_;
+		private final long enqueueTime_;
+		private final int address_;
+		private int result_;
+		private RuntimeException error_;
+		private volatile boolean done_;
+
+		// threads sharing the result of a read, closed once the read started
+		private Thread[] joiners_ = new Thread[0];
+		private boolean open_ = true;
+
+		Command(IntSupplier operation, Priority priority, Thread waiter, int address) {
+			operation_ = operation;
+			priority_ = priority;
+			waiter_ = waiter;
+			address_ = address;
+			enqueueTime_ = System.nanoTime();
+		}
+
+		synchronized boolean join(Thread t) {
+			if(!open_)
+				return false;
+			joiners_ = Arrays.copyOf(joiners_, joiners_.length + 1);
+			joiners_[joiners_.length - 1] = t;
+			return true;
+		}
+
+		synchronized void close() {
+			open_ = false;
+		}
+
+		void run() {
+			try {
+				result_ = operation_.getAsInt();
+			} catch (RuntimeException e) {
+				result_ = -1;
+				error_ = e;
+			}
+			done_ = true;
+			LockSupport.unpark(waiter_);
+
+			for(Thread t: joiners_) {
+				LockSupport.unpark(t);
+			}
+		}
+	}
+}
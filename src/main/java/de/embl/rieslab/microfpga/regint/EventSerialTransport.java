@@ -0,0 +1,154 @@
+package de.embl.rieslab.microfpga.regint;
+
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortDataListener;
+import com.fazecast.jSerialComm.SerialPortEvent;
+
+/**
+ * Serial transport whose receive path is driven by the data-available events of
+ * jSerialComm instead of blocking reads. Received bytes are moved by the event
+ * callback into a {@link ReplyBuffer}, from which the replies are assembled, and
+ * no thread is added to the event thread of jSerialComm.
+ *
+ * Each read has its own deadline, computed from the number of bytes expected at
+ * {@link #BAUD_RATE} plus a margin for the USB latency, and capped by the read
+ * timeout. A dropped byte therefore costs a few tens of ms instead of the full
+ * read timeout. After a failed read, the next request is only sent once the line
+ * has been quiet for the reply margin, the late bytes being discarded so that they
+ * are not taken for the next reply. If the line does not go quiet within the read
+ * timeout, the request fails.
+ *
+ * It can be used wherever a {@link SerialTransport} is, for instance:
+ * <pre>
+ * new MicroFPGAConnector(SerialTransport::findPorts, EventSerialTransport::new)
+ * </pre>
+ */
+public class EventSerialTransport extends SerialTransport {
+
+	public static final long BYTE_NANOS = 10L * 1000000000L / BAUD_RATE;
+	public static final long DEFAULT_REPLY_MARGIN_NANOS = 20000000L;
+
+	private final ReplyBuffer replies_ = new ReplyBuffer();
+	private final byte[] eventBuffer_ = new byte[ReplyBuffer.DEFAULT_CAPACITY];
+
+	private volatile long replyMarginNanos_ = DEFAULT_REPLY_MARGIN_NANOS;
+	private volatile long discarded_;
+
+	/**
+	 * Creates a transport connecting to the first Alchitry board found.
+	 */
+	public EventSerialTransport() {
+		this(null);
+	}
+
+	/**
+	 * Creates a transport connecting to a specific port.
+	 *
+	 * @param portName System port name, or null to connect to the first Alchitry
+	 *                 board found.
+	 */
+	public EventSerialTransport(String portName) {
+		super(portName);
+	}
+
+	/**
+	 * Sets the time allowed for a reply on top of its transmission time.
+	 *
+	 * @param nanos Margin in ns.
+	 */
+	public void setReplyMargin(long nanos) {
+		replyMarginNanos_ = Math.max(0, nanos);
+	}
+
+	public long getReplyMargin() {
+		return replyMarginNanos_;
+	}
+
+	/**
+	 * @param length Number of bytes expected.
+	 * @return Time allowed to receive them, in ns.
+	 */
+	public long getReplyTimeoutNanos(int length) {
+		return Math.min(getReadTimeout() * 1000000L, replyMarginNanos_ + length * BYTE_NANOS);
+	}
+
+	/**
+	 * @return Number of bytes received outside of a read and discarded.
+	 */
+	public long getDiscardedCount() {
+		return discarded_;
+	}
+
+	@Override
+	public boolean open() {
+		if(!super.open())
+			return false;
+
+		replies_.clear();
+		SerialPort port = getSerialPort();
+		if(!port.addDataListener(new DataListener(port))) {
+			port.closePort();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected void configure(SerialPort port) {
+		// the callback only reads the bytes available
+		port.setComPortTimeouts(SerialPort.TIMEOUT_NONBLOCKING, 0, 0);
+	}
+
+	@Override
+	public boolean close() {
+		SerialPort port = getSerialPort();
+		if(port != null)
+			port.removeDataListener();
+		replies_.clear();
+		return super.close();
+	}
+
+	@Override
+	public int write(byte[] buffer, int length) {
+		// no reply is expected before a new request
+		int n = replies_.resync(replyMarginNanos_, getReadTimeout() * 1000000L);
+		if(n < 0)
+			return -1;
+		discarded_ += n;
+		return super.write(buffer, length);
+	}
+
+	@Override
+	public int read(byte[] buffer, int length) {
+		if(!isOpen())
+			return -1;
+		return replies_.take(buffer, length, getReplyTimeoutNanos(length));
+	}
+
+	private final class DataListener implements SerialPortDataListener {
+		private final SerialPort port_;
+
+		DataListener(SerialPort port) {
+			port_ = port;
+		}
+
+		@Override
+		public int getListeningEvents() {
+			return SerialPort.LISTENING_EVENT_DATA_AVAILABLE;
+		}
+
+		@Override
+		public void serialEvent(SerialPortEvent event) {
+			if(event.getEventType() != SerialPort.LISTENING_EVENT_DATA_AVAILABLE)
+				return;
+
+			int n;
+			while((n = port_.bytesAvailable()) > 0) {
+				int received = port_.readBytes(eventBuffer_, Math.min(n, eventBuffer_.length));
+				if(received <= 0)
+					break;
+				replies_.append(eventBuffer_, received);
+			}
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package de.embl.rieslab.microfpga.regint;
+
+/**
+ * Priority of a request to the board. A {@link ConcurrentRegisterInterface} always
+ * serves pending urgent requests first, then normal and finally bulk requests. The
+ * plain {@link RegisterInterface} serves requests in call order.
+ */
+public enum Priority {
+	/**
+	 * Safety or timing critical writes: camera start/stop, TTLs, lasers off.
+	 */
+	URGENT,
+
+	/**
+	 * Default priority.
+	 */
+	NORMAL,
+
+	/**
+	 * Background traffic: polling, snapshots.
+	 */
+	BULK
+}
@@ -1,77 +1,881 @@
 package de.embl.rieslab.microfpga.regint;
 
-import com.fazecast.jSerialComm.SerialPort;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /*
  * This class was inspired by the RegisterInterface written by Alchitry (ex EmbeddedMicro):
  * https://alchitry.com/blogs/tutorials/register-interface
+ *
+ * Each request starts with a header byte: bit 7 is the write flag, bit 6 the
+ * address auto-increment flag and bits 5-0 the number of 32-bit words minus one.
+ * The header is followed by the 4-byte address and, for writes, the data words.
  */
 public class RegisterInterface {
+
+	public static final int MAX_BURST = 64;
+
+	private static final int FLAG_WRITE = 1 << 7;
+	private static final int FLAG_INCREMENT = 1 << 6;
+	public static final int HEADER_LENGTH = 5;
+	public static final int WRITE_FRAME_LENGTH = HEADER_LENGTH + 4;
+
+	public static final int DEFAULT_READ_WINDOW = 16;
+
+	/**
+	 * Number of addresses (starting from 0) mirrored by the shadow registers.
+	 */
+	public static final int SHADOW_SIZE = 256;
 	
-	private static String ALCHITRY = "Alchitry";
-	
-	SerialPort serialPort_;
+	private final Transport transport_;
+
+	private int readWindow_ = DEFAULT_READ_WINDOW;
+
+	// frame buffers reused between requests, only grown when needed
+	private byte[] txBuffer_ = new byte[WRITE_FRAME_LENGTH];
+	private byte[] rxBuffer_ = new byte[4];
+
+	private final RegisterMetrics metrics_ = new RegisterMetrics();
+
+	// last known value of each register, and validity bitset, atomic so that they
+	// can be read from other threads than the one accessing the transport
+	private final AtomicIntegerArray shadow_ = new AtomicIntegerArray(SHADOW_SIZE);
+	private final AtomicLongArray shadowValid_ = new AtomicLongArray(SHADOW_SIZE / 64);
+	private volatile boolean shadowEnabled_;
+
+	/**
+	 * Creates a register interface communicating with the first Alchitry
+	 * board found on the serial ports.
+	 */
+	public RegisterInterface() {
+		this(new SerialTransport());
+	}
+
+	public RegisterInterface(Transport transport) {
+		transport_ = transport;
+	}
+
+	public Transport getTransport() {
+		return transport_;
+	}
+
+	public RegisterMetrics getMetrics() {
+		return metrics_;
+	}
 	
 	public boolean connect() {
-		SerialPort[] portsList = SerialPort.getCommPorts();
+		return transport_.open();
+	}
+
+	public boolean disconnect() {
+		return transport_.close();
+	}
 
-		// connects to the first Alchitry board we find
-		for(SerialPort port: portsList) {
-			if(port.getPortDescription() != null && port.getPortDescription().contains(ALCHITRY)) {
-				serialPort_ = port;
-				break;
+	/**
+	 * Closes and reopens the transport, for instance after the link was lost, and
+	 * checks that the board answers with the expected values. The transport is
+	 * closed again if it does not, so that no request reaches another board.
+	 *
+	 * @param addresses Addresses read after reopening, e.g. version and id.
+	 * @param expected Expected values, in the same order as the addresses.
+	 * @return True if the transport was reopened and the board answered as expected.
+	 */
+	public boolean reopen(int[] addresses, int[] expected) {
+		transport_.close();
+		if(!transport_.open())
+			return false;
+
+		for(int i=0; i<addresses.length; i++) {
+			if(read(addresses[i]) != expected[i]) {
+				transport_.close();
+				return false;
 			}
 		}
+		return true;
+	}
 
-		boolean b = serialPort_.openPort();
-		
-		serialPort_.setComPortParameters(57600, 8, 1, 0);
-		serialPort_.setComPortTimeouts(SerialPort.TIMEOUT_READ_BLOCKING, 1000, 0);
+
+	public boolean write(int address, int data){
+		long t0 = System.nanoTime();
+
+		byte[] buff = txBuffer_;
+		encodeWrite(buff, 0, address, data);
 		
-		return b;
-	}
+		// send write request
+		int ret = transport_.write(buff, WRITE_FRAME_LENGTH);
+		boolean ok = ret != -1;
 
-	public boolean disconnect() {
-		return serialPort_.closePort();
+		if(ok) {
+			updateShadow(address, data);
+		} else {
+			invalidateShadow(address);
+		}
+
+		long nanos = System.nanoTime() - t0;
+		metrics_.recordTransaction(ok ? WRITE_FRAME_LENGTH : 0, 0, ok);
+		metrics_.record(address, true, ok, nanos);
+
+		return ok;
 	}
 
+	/**
+	 * Writes consecutive values to consecutive addresses using the auto-increment
+	 * mode of the register interface. Values are sent in frames of at most
+	 * {@link #MAX_BURST} words, all frames being passed to the port in a single call.
+	 *
+	 * @param startAddress Address of the first register.
+	 * @param values Array holding the values.
+	 * @param offset Index of the first value in the array.
+	 * @param length Number of values to write.
+	 * @return True if the values were sent, false otherwise.
+	 */
+	public boolean writeBurst(int startAddress, int[] values, int offset, int length){
+		if(length <= 0 || offset < 0 || offset + length > values.length)
+			return false;
+
+		long t0 = System.nanoTime();
+
+		int nFrames = (length + MAX_BURST - 1) / MAX_BURST;
+		byte[] buff = txBuffer(nFrames * HEADER_LENGTH + 4 * length);
+
+		int pos = 0;
+		int sent = 0;
+		while(sent < length) {
+			int n = Math.min(MAX_BURST, length - sent);
+
+			pos = putHeader(buff, pos, FLAG_WRITE | FLAG_INCREMENT, n, startAddress + sent);
+			for(int i=0; i<n; i++) {
+				pos = putInt(buff, pos, values[offset + sent + i]);
+			}
+
+			sent += n;
+		}
 
-	public boolean write(int address, int data){
-		byte[] buff = new byte[9];
-		buff[0] = (byte) (1 << 7);
-		buff[1] = (byte) (address & 0xff);
-		buff[2] = (byte) ((address >> 8) & 0xff);
-		buff[3] = (byte) ((address >> 16) & 0xff);
-		buff[4] = (byte) ((address >> 24) & 0xff);
-		buff[5] = (byte) (data & 0xff);
-		buff[6] = (byte) ((data >> 8) & 0xff);
-		buff[7] = (byte) ((data >> 16) & 0xff);
-		buff[8] = (byte) ((data >> 24) & 0xff);
-		
 		// send write request
-		int ret = serialPort_.writeBytes(buff, buff.length);
-		
-		return ret != -1;
+		int ret = transport_.write(buff, pos);
+		boolean ok = ret != -1;
+
+		long nanos = System.nanoTime() - t0;
+		metrics_.recordTransaction(ok ? pos : 0, 0, ok);
+		for(int i=0; i<length; i++) {
+			if(ok) {
+				updateShadow(startAddress + i, values[offset + i]);
+			} else {
+				invalidateShadow(startAddress + i);
+			}
+			metrics_.record(startAddress + i, true, ok, nanos);
+		}
+
+		return ok;
+	}
+
+	/**
+	 * Writes consecutive values to consecutive addresses, skipping the registers
+	 * whose shadow already holds the requested value. The changed registers are
+	 * grouped into bursts, bridging single unchanged registers (cheaper than a new
+	 * frame header), and all frames are sent in a single call. If the shadow
+	 * registers are disabled, all values are written.
+	 *
+	 * @param startAddress Address of the first register.
+	 * @param values Array holding the values.
+	 * @param offset Index of the first value in the array.
+	 * @param length Number of values.
+	 * @return True if the changed values were sent (or nothing had to be sent), false otherwise.
+	 */
+	public boolean writeChanged(int startAddress, int[] values, int offset, int length){
+		if(length <= 0 || offset < 0 || offset + length > values.length)
+			return false;
+
+		if(!shadowEnabled_) {
+			if(length == 1)
+				return write(startAddress, values[offset]);
+			return writeBurst(startAddress, values, offset, length);
+		}
+
+		long t0 = System.nanoTime();
+
+		// worst case: one frame per register
+		byte[] buff = txBuffer(length * WRITE_FRAME_LENGTH);
+		int pos = encodeChanged(buff, 0, startAddress, values, offset, length);
+
+		if(pos == 0)
+			return true;
+
+		// send write requests
+		int ret = transport_.write(buff, pos);
+		boolean ok = ret != -1;
+
+		long nanos = System.nanoTime() - t0;
+		metrics_.recordTransaction(ok ? pos : 0, 0, ok);
+		recordWriteFrames(buff, pos, ok, nanos);
+
+		return ok;
+	}
+
+	/**
+	 * Encodes the write frames of the values that differ from the shadow registers,
+	 * or whose shadow is not valid, whether or not the shadow registers are enabled.
+	 * Changed registers are grouped into bursts as in {@link #writeChanged(int, int[], int, int)}.
+	 * The frames can then be sent with {@link #writeFrames(byte[], int)}.
+	 *
+	 * @param buff Destination buffer, of length at least pos + length * {@link #WRITE_FRAME_LENGTH}.
+	 * @param pos Position of the first frame in the buffer.
+	 * @param startAddress Address of the first register.
+	 * @param values Array holding the values.
+	 * @param offset Index of the first value in the array.
+	 * @param length Number of values.
+	 * @return Position following the last frame, pos if nothing changed.
+	 */
+	public int encodeChanged(byte[] buff, int pos, int startAddress, int[] values, int offset, int length){
+		int i = 0;
+		while(i < length) {
+			if(!isChanged(startAddress + i, values[offset + i])) {
+				i++;
+				continue;
+			}
+
+			// extend the run while the gaps are at most one register long
+			int last = i;
+			for(int j = i + 1; j < length && j - i < MAX_BURST && j - last <= 2; j++) {
+				if(isChanged(startAddress + j, values[offset + j]))
+					last = j;
+			}
+
+			pos = encodeBurstWrite(buff, pos, startAddress + i, values, offset + i, last - i + 1);
+
+			i = last + 1;
+		}
+		return pos;
+	}
+
+	/**
+	 * Sends write frames encoded beforehand, for instance with {@link #encodeWrite(byte[], int, int, int)}
+	 * or {@link #encodeBurstWrite(byte[], int, int, int[], int, int)}, in a single call.
+	 * The shadow registers are updated from the content of the frames.
+	 *
+	 * @param frames Buffer holding complete write frames.
+	 * @param length Number of bytes to send from the start of the buffer.
+	 * @return True if the frames were sent, false if they were not or if the buffer
+	 * does not only contain complete write frames.
+	 */
+	public boolean writeFrames(byte[] frames, int length){
+		if(!isWriteFrames(frames, length))
+			return false;
+
+		long t0 = System.nanoTime();
+
+		// send write requests
+		int ret = transport_.write(frames, length);
+		boolean ok = ret != -1;
+
+		long nanos = System.nanoTime() - t0;
+		metrics_.recordTransaction(ok ? length : 0, 0, ok);
+		recordWriteFrames(frames, length, ok, nanos);
+
+		return ok;
 	}
 
 	public int read(int address){
-		byte[] buff = new byte[5];
-		buff[0] = (byte) (0 << 7);
-		buff[1] = (byte) (address & 0xff);
-		buff[2] = (byte) ((address >> 8) & 0xff);
-		buff[3] = (byte) ((address >> 16) & 0xff);
-		buff[4] = (byte) ((address >> 24) & 0xff);
+		long t0 = System.nanoTime();
+
+		byte[] buff = txBuffer_;
+		encodeRead(buff, 0, address);
 
 		// send read request
-		int ret = serialPort_.writeBytes(buff, buff.length);
-		if(ret == -1)
-			return ret;
+		int ret = transport_.write(buff, HEADER_LENGTH);
 		
 		// read out bytes
-		ret = serialPort_.readBytes(buff, buff.length);
-		if(ret == -1)
-			return ret;
-		
-		return (buff[0] & 0xff) | (buff[1] & 0xff) << 8 | (buff[2] & 0xff) << 16 | (buff[3] & 0xff) << 24;
+		int received = 0;
+		if(ret != -1)
+			received = transport_.read(rxBuffer_, 4);
+		boolean ok = received == 4;
+
+		int value = -1;
+		if(ok) {
+			value = decode(rxBuffer_, 0);
+			updateShadow(address, value);
+		}
+
+		long nanos = System.nanoTime() - t0;
+		metrics_.recordTransaction(ret == -1 ? 0 : HEADER_LENGTH, Math.max(0, received), ok);
+		metrics_.record(address, false, ok, nanos);
+
+		return value;
+	}
+
+	/**
+	 * Reads a register, answering from the shadow registers when they are enabled
+	 * and hold a known value for the address. This must only be used for registers
+	 * that are exclusively written by the host.
+	 *
+	 * @param address Register address.
+	 * @return Register value, or -1 in case of error.
+	 */
+	public int readShadowed(int address){
+		if(shadowEnabled_ && isShadowValid(address)) {
+			return shadow_.get(address);
+		}
+		return read(address);
+	}
+
+	/**
+	 * Reads consecutive registers using the auto-increment mode of the register
+	 * interface. Requests are sent in frames of at most {@link #MAX_BURST} words.
+	 *
+	 * @param startAddress Address of the first register.
+	 * @param dest Array receiving the values.
+	 * @param offset Index in dest of the first value.
+	 * @param count Number of registers to read.
+	 * @return True if all values were read, false otherwise.
+	 */
+	public boolean readBurst(int startAddress, int[] dest, int offset, int count){
+		if(count <= 0 || offset < 0 || offset + count > dest.length)
+			return false;
+
+		long t0 = System.nanoTime();
+
+		int nFrames = (count + MAX_BURST - 1) / MAX_BURST;
+		byte[] buff = txBuffer(nFrames * HEADER_LENGTH);
+
+		int pos = 0;
+		for(int requested = 0; requested < count; requested += MAX_BURST) {
+			int n = Math.min(MAX_BURST, count - requested);
+			pos = putHeader(buff, pos, FLAG_INCREMENT, n, startAddress + requested);
+		}
+
+		// send read requests
+		int ret = transport_.write(buff, pos);
+
+		// read out bytes
+		byte[] reply = rxBuffer(4 * count);
+		int received = 0;
+		if(ret != -1)
+			received = transport_.read(reply, 4 * count);
+		boolean ok = received == 4 * count;
+
+		long nanos = System.nanoTime() - t0;
+		metrics_.recordTransaction(ret == -1 ? 0 : pos, Math.max(0, received), ok);
+		for(int i=0; i<count; i++) {
+			if(ok) {
+				dest[offset + i] = decode(reply, 4 * i);
+				updateShadow(startAddress + i, dest[offset + i]);
+			}
+			metrics_.record(startAddress + i, false, ok, nanos);
+		}
+
+		return ok;
+	}
+
+	/**
+	 * Reads a list of arbitrary addresses by sending the read requests back-to-back
+	 * before collecting the replies, which are returned in the same order. At most
+	 * {@link #getReadWindow()} requests are outstanding at any time.
+	 *
+	 * @param addresses Addresses to read.
+	 * @param results Array receiving the values, of length at least addresses.length.
+	 * @return True if all values were read, false otherwise.
+	 */
+	public boolean read(int[] addresses, int[] results){
+		if(results.length < addresses.length)
+			return false;
+
+		int window = readWindow_;
+		byte[] buff = txBuffer(Math.min(window, addresses.length) * HEADER_LENGTH);
+		byte[] reply = rxBuffer(Math.min(window, addresses.length) * 4);
+
+		for(int start = 0; start < addresses.length; start += window) {
+			long t0 = System.nanoTime();
+			int n = Math.min(window, addresses.length - start);
+
+			int pos = 0;
+			for(int i=0; i<n; i++) {
+				pos = encodeRead(buff, pos, addresses[start + i]);
+			}
+
+			// send read requests
+			int ret = transport_.write(buff, pos);
+
+			// read out bytes
+			int received = 0;
+			if(ret != -1)
+				received = transport_.read(reply, 4 * n);
+			boolean ok = received == 4 * n;
+
+			long nanos = System.nanoTime() - t0;
+			metrics_.recordTransaction(ret == -1 ? 0 : pos, Math.max(0, received), ok);
+			for(int i=0; i<n; i++) {
+				if(ok) {
+					results[start + i] = decode(reply, 4 * i);
+					updateShadow(addresses[start + i], results[start + i]);
+				}
+				metrics_.record(addresses[start + i], false, ok, nanos);
+			}
+
+			if(!ok)
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Writes a list of address/value pairs. All frames are encoded into the buffer
+	 * supplied by the caller and sent in a single call, so that repeated calls with
+	 * the same buffer do not allocate.
+	 *
+	 * @param addresses Register addresses.
+	 * @param values Values, in the same order as the addresses.
+	 * @param count Number of pairs to write.
+	 * @param buffer Buffer of length at least count * {@link #WRITE_FRAME_LENGTH}.
+	 * @return True if the values were sent, false otherwise.
+	 */
+	public boolean write(int[] addresses, int[] values, int count, byte[] buffer){
+		if(count <= 0 || count > addresses.length || count > values.length
+				|| buffer.length < count * WRITE_FRAME_LENGTH)
+			return false;
+
+		long t0 = System.nanoTime();
+
+		int pos = 0;
+		for(int i=0; i<count; i++) {
+			pos = encodeWrite(buffer, pos, addresses[i], values[i]);
+		}
+
+		// send write requests
+		int ret = transport_.write(buffer, pos);
+		boolean ok = ret != -1;
+
+		long nanos = System.nanoTime() - t0;
+		metrics_.recordTransaction(ok ? pos : 0, 0, ok);
+		for(int i=0; i<count; i++) {
+			if(ok) {
+				updateShadow(addresses[i], values[i]);
+			} else {
+				invalidateShadow(addresses[i]);
+			}
+			metrics_.record(addresses[i], true, ok, nanos);
+		}
+
+		return ok;
+	}
+
+	/**
+	 * Writes the address/value pairs whose value differs from the shadow registers,
+	 * or whose shadow is not valid, whether or not the shadow registers are enabled.
+	 * Pairs with consecutive addresses are encoded as in {@link #encodeChanged(byte[], int, int, int[], int, int)}
+	 * and all frames are sent in a single call. Comparing and sending form a single
+	 * operation, so that no other write can be interleaved in between.
+	 *
+	 * @param addresses Register addresses.
+	 * @param values Values, in the same order as the addresses.
+	 * @param count Number of pairs.
+	 * @param buffer Buffer of length at least count * {@link #WRITE_FRAME_LENGTH},
+	 *               holding the frames sent when the method returns.
+	 * @return Number of bytes sent, 0 if nothing changed, or -1 in case of error.
+	 */
+	public int writeDiff(int[] addresses, int[] values, int count, byte[] buffer){
+		return writeRuns(addresses, values, count, buffer, true);
+	}
+
+	/**
+	 * Writes a list of address/value pairs, pairs with consecutive addresses being
+	 * grouped in bursts, and all frames being sent in a single call. If the shadow
+	 * registers are enabled, only the values that changed are written, as in
+	 * {@link #writeDiff(int[], int[], int, byte[])}.
+	 *
+	 * @param addresses Register addresses.
+	 * @param values Values, in the same order as the addresses.
+	 * @param count Number of pairs.
+	 * @param buffer Buffer of length at least count * {@link #WRITE_FRAME_LENGTH}.
+	 * @return True if the values were sent (or nothing had to be sent), false otherwise.
+	 */
+	public boolean writeChanged(int[] addresses, int[] values, int count, byte[] buffer){
+		return writeRuns(addresses, values, count, buffer, shadowEnabled_) >= 0;
+	}
+
+	private int writeRuns(int[] addresses, int[] values, int count, byte[] buffer, boolean changedOnly){
+		if(count <= 0 || count > addresses.length || count > values.length
+				|| buffer.length < count * WRITE_FRAME_LENGTH)
+			return -1;
+
+		long t0 = System.nanoTime();
+
+		// runs of consecutive addresses
+		int pos = 0;
+		int start = 0;
+		for(int i=1; i<=count; i++) {
+			if(i == count || addresses[i] != addresses[i-1] + 1) {
+				if(changedOnly) {
+					pos = encodeChanged(buffer, pos, addresses[start], values, start, i - start);
+				} else {
+					for(int j=start; j<i; j+=MAX_BURST) {
+						pos = encodeBurstWrite(buffer, pos, addresses[j], values, j, Math.min(MAX_BURST, i - j));
+					}
+				}
+				start = i;
+			}
+		}
+
+		if(pos == 0)
+			return 0;
+
+		// send write requests
+		int ret = transport_.write(buffer, pos);
+		boolean ok = ret != -1;
+
+		long nanos = System.nanoTime() - t0;
+		metrics_.recordTransaction(ok ? pos : 0, 0, ok);
+		recordWriteFrames(buffer, pos, ok, nanos);
+
+		return ok ? pos : -1;
+	}
+
+	/**
+	 * Writes a register with a given priority. The plain register interface ignores
+	 * the priority, see {@link ConcurrentRegisterInterface}.
+	 */
+	public boolean write(int address, int data, Priority priority){
+		return write(address, data);
+	}
+
+	public boolean writeChanged(int startAddress, int[] values, int offset, int length, Priority priority){
+		return writeChanged(startAddress, values, offset, length);
+	}
+
+	public boolean writeFrames(byte[] frames, int length, Priority priority){
+		return writeFrames(frames, length);
+	}
+
+	public boolean writeChanged(int[] addresses, int[] values, int count, byte[] buffer, Priority priority){
+		return writeChanged(addresses, values, count, buffer);
+	}
+
+	public int writeDiff(int[] addresses, int[] values, int count, byte[] buffer, Priority priority){
+		return writeDiff(addresses, values, count, buffer);
+	}
+
+	public int read(int address, Priority priority){
+		return read(address);
+	}
+
+	public boolean readBurst(int startAddress, int[] dest, int offset, int count, Priority priority){
+		return readBurst(startAddress, dest, offset, count);
+	}
+
+	public boolean read(int[] addresses, int[] results, Priority priority){
+		return read(addresses, results);
+	}
+
+	/**
+	 * Reads back a group of registers after writing them, with a single burst read
+	 * covering all of them or with a pipelined read, whichever sends and receives
+	 * fewer bytes.
+	 *
+	 * @param addresses Register addresses.
+	 * @param expected Values written, in the same order as the addresses.
+	 * @param count Number of registers to verify.
+	 * @return Report of the mismatches.
+	 */
+	public VerificationReport verify(int[] addresses, int[] expected, int count){
+		if(count <= 0 || count > addresses.length || count > expected.length)
+			throw new IllegalArgumentException("Invalid number of registers to verify.");
+
+		int[] a = Arrays.copyOf(addresses, count);
+		int[] e = Arrays.copyOf(expected, count);
+		int[] actual = new int[count];
+
+		int min = a[0];
+		int max = a[0];
+		for(int address: a) {
+			min = Math.min(min, address);
+			max = Math.max(max, address);
+		}
+
+		// bytes of a burst read of the whole range, against one request per register
+		int span = max - min + 1;
+		int burstCost = ((span + MAX_BURST - 1) / MAX_BURST) * HEADER_LENGTH + 4 * span;
+		int pipelinedCost = count * (HEADER_LENGTH + 4);
+
+		boolean ok;
+		if(burstCost <= pipelinedCost) {
+			int[] range = new int[span];
+			ok = readBurst(min, range, 0, span, Priority.URGENT);
+			for(int i=0; i<count && ok; i++) {
+				actual[i] = range[a[i] - min];
+			}
+		} else {
+			ok = read(a, actual, Priority.URGENT);
+		}
+
+		return new VerificationReport(a, e, actual, ok);
+	}
+
+	/**
+	 * Reads back registers and compares them to their shadow, i.e. to the last
+	 * values written, see {@link #verify(int[], int[], int)}.
+	 *
+	 * @param addresses Register addresses, whose shadow must be valid.
+	 * @return Report of the mismatches.
+	 */
+	public VerificationReport verifyShadow(int... addresses){
+		int[] expected = new int[addresses.length];
+		for(int i=0; i<addresses.length; i++) {
+			expected[i] = getShadow(addresses[i]);
+		}
+		return verify(addresses, expected, addresses.length);
+	}
+
+	/**
+	 * Writes a register whose value may be superseded shortly after, such as a
+	 * setpoint driven by a slider. A {@link ConcurrentRegisterInterface} delays the
+	 * write and only sends the latest value; the plain register interface writes it
+	 * immediately.
+	 *
+	 * @param address Register address.
+	 * @param data Value.
+	 * @return True if the value was sent or queued, false otherwise.
+	 */
+	public boolean writeCoalesced(int address, int data){
+		return write(address, data);
+	}
+
+	/**
+	 * Sends the writes delayed by {@link #writeCoalesced(int, int)}. Requests made
+	 * after this method returns reach the board after them.
+	 *
+	 * @return True if all delayed writes were sent, false otherwise.
+	 */
+	public boolean flush(){
+		return true;
+	}
+
+	/**
+	 * Sets the maximum number of read requests sent before collecting the replies in
+	 * {@link #read(int[], int[])}, in order not to overrun the FPGA UART buffers.
+	 *
+	 * @param window Number of outstanding requests, at least 1.
+	 */
+	public void setReadWindow(int window){
+		if(window > 0)
+			readWindow_ = window;
+	}
+
+	public int getReadWindow(){
+		return readWindow_;
+	}
+
+	/**
+	 * Enables answering {@link #readShadowed(int)} from the last value written to or
+	 * read from each register. The shadow registers are maintained regardless.
+	 *
+	 * @param enabled True to answer reads from the shadow registers.
+	 */
+	public void setShadowEnabled(boolean enabled){
+		shadowEnabled_ = enabled;
+	}
+
+	public boolean isShadowEnabled(){
+		return shadowEnabled_;
+	}
+
+	public boolean isShadowValid(int address){
+		return address >= 0 && address < SHADOW_SIZE
+				&& (shadowValid_.get(address >>> 6) & (1L << address)) != 0;
+	}
+
+	/**
+	 * Returns the last known value of a register, see {@link #isShadowValid(int)}.
+	 *
+	 * @param address Register address.
+	 * @return Last known value, or -1 if the address is not mirrored.
+	 */
+	public int getShadow(int address){
+		if(address < 0 || address >= SHADOW_SIZE)
+			return -1;
+		return shadow_.get(address);
+	}
+
+	public void invalidateShadow(){
+		for(int i=0; i<shadowValid_.length(); i++) {
+			shadowValid_.set(i, 0);
+		}
+	}
+
+	public void invalidateShadow(int address){
+		if(address >= 0 && address < SHADOW_SIZE) {
+			shadowValid_.getAndAccumulate(address >>> 6, ~(1L << address), (v, mask) -> v & mask);
+		}
+	}
+
+	/**
+	 * Writes back the valid shadow registers of a range, for instance after the board
+	 * has been reconnected. Contiguous valid registers are grouped in bursts, all sent
+	 * in a single transport write.
+	 *
+	 * @param startAddress Address of the first register.
+	 * @param count Number of registers.
+	 * @return Number of registers written, or -1 if the write failed.
+	 */
+	public int restoreShadow(int startAddress, int count){
+		int end = Math.min(SHADOW_SIZE, startAddress + count);
+		int[] values = new int[MAX_BURST];
+		byte[] frames = new byte[0];
+		int pos = 0;
+		int n = 0;
+
+		int a = Math.max(0, startAddress);
+		while(a < end) {
+			if(!isShadowValid(a)) {
+				a++;
+				continue;
+			}
+
+			int length = 0;
+			while(a + length < end && length < MAX_BURST && isShadowValid(a + length)) {
+				values[length] = shadow_.get(a + length);
+				length++;
+			}
+
+			if(frames.length < pos + HEADER_LENGTH + 4 * length)
+				frames = Arrays.copyOf(frames, 2 * (pos + HEADER_LENGTH + 4 * length));
+			pos = encodeBurstWrite(frames, pos, a, values, 0, length);
+			n += length;
+			a += length;
+		}
+
+		if(n == 0)
+			return 0;
+		return writeFrames(frames, pos, Priority.URGENT) ? n : -1;
+	}
+
+	private boolean isChanged(int address, int value){
+		return !isShadowValid(address) || shadow_.get(address) != value;
+	}
+
+	private void updateShadow(int address, int value){
+		if(address >= 0 && address < SHADOW_SIZE) {
+			// the value is published before the validity bit
+			shadow_.set(address, value);
+			shadowValid_.getAndAccumulate(address >>> 6, 1L << address, (v, bit) -> v | bit);
+		}
+	}
+
+	/**
+	 * Encodes a single-word write frame.
+	 *
+	 * @param buff Destination buffer.
+	 * @param pos Position of the frame in the buffer.
+	 * @param address Register address.
+	 * @param data Value.
+	 * @return Position following the frame.
+	 */
+	public static int encodeWrite(byte[] buff, int pos, int address, int data) {
+		pos = putHeader(buff, pos, FLAG_WRITE, 1, address);
+		return putInt(buff, pos, data);
+	}
+
+	/**
+	 * Encodes a burst write frame.
+	 *
+	 * @param buff Destination buffer.
+	 * @param pos Position of the frame in the buffer.
+	 * @param startAddress Address of the first register.
+	 * @param values Array holding the values.
+	 * @param offset Index of the first value in the array.
+	 * @param n Number of values, at most {@link #MAX_BURST}.
+	 * @return Position following the frame.
+	 */
+	public static int encodeBurstWrite(byte[] buff, int pos, int startAddress, int[] values, int offset, int n) {
+		if(n <= 0 || n > MAX_BURST)
+			throw new IllegalArgumentException("A burst holds between 1 and "+MAX_BURST+" words.");
+
+		pos = putHeader(buff, pos, FLAG_WRITE | FLAG_INCREMENT, n, startAddress);
+		for(int i=0; i<n; i++) {
+			pos = putInt(buff, pos, values[offset + i]);
+		}
+		return pos;
+	}
+
+	/**
+	 * Encodes a single-word read request.
+	 *
+	 * @param buff Destination buffer.
+	 * @param pos Position of the frame in the buffer.
+	 * @param address Register address.
+	 * @return Position following the frame.
+	 */
+	public static int encodeRead(byte[] buff, int pos, int address) {
+		return putHeader(buff, pos, 0, 1, address);
+	}
+
+	/**
+	 * Decodes a 32-bit little-endian word, as returned by the board.
+	 *
+	 * @param buff Buffer.
+	 * @param pos Position of the word in the buffer.
+	 * @return Value.
+	 */
+	public static int decode(byte[] buff, int pos) {
+		return (buff[pos] & 0xff) | (buff[pos + 1] & 0xff) << 8 | (buff[pos + 2] & 0xff) << 16 | (buff[pos + 3] & 0xff) << 24;
+	}
+
+	private static boolean isWriteFrames(byte[] buff, int length) {
+		if(length <= 0 || length > buff.length)
+			return false;
+
+		int p = 0;
+		while(p < length) {
+			if((buff[p] & FLAG_WRITE) == 0)
+				return false;
+			p += HEADER_LENGTH + 4 * ((buff[p] & 0x3f) + 1);
+		}
+		return p == length;
+	}
+
+	// walks write frames to update the shadow registers and the metrics
+	private void recordWriteFrames(byte[] buff, int length, boolean ok, long nanos) {
+		int p = 0;
+		while(p < length) {
+			int n = (buff[p] & 0x3f) + 1;
+			boolean increment = (buff[p] & FLAG_INCREMENT) != 0;
+			int address = decode(buff, p + 1);
+
+			for(int k=0; k<n; k++) {
+				int a = increment ? address + k : address;
+				if(ok) {
+					updateShadow(a, decode(buff, p + HEADER_LENGTH + 4 * k));
+				} else {
+					invalidateShadow(a);
+				}
+				metrics_.record(a, true, ok, nanos);
+			}
+			p += HEADER_LENGTH + 4 * n;
+		}
+	}
+
+	private byte[] txBuffer(int length) {
+		if(txBuffer_.length < length)
+			txBuffer_ = new byte[length];
+		return txBuffer_;
+	}
+
+	private byte[] rxBuffer(int length) {
+		if(rxBuffer_.length < length)
+			rxBuffer_ = new byte[length];
+		return rxBuffer_;
+	}
+
+	private static int putHeader(byte[] buff, int pos, int flags, int nWords, int address) {
+		buff[pos] = (byte) (flags | ((nWords - 1) & 0x3f));
+		return putInt(buff, pos + 1, address);
+	}
+
+	private static int putInt(byte[] buff, int pos, int value) {
+		buff[pos] = (byte) (value & 0xff);
+		buff[pos + 1] = (byte) ((value >> 8) & 0xff);
+		buff[pos + 2] = (byte) ((value >> 16) & 0xff);
+		buff[pos + 3] = (byte) ((value >> 24) & 0xff);
+		return pos + 4;
 	}
 }
@@ -0,0 +1,345 @@
+package de.embl.rieslab.microfpga.regint;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Allocation-free counters and latency histograms of the register interface,
+ * keyed by register address.
+ *
+ * Every register accessed by a transaction counts as one read or write, and the
+ * duration of the transaction is added to the latency histogram of each of these
+ * registers. Histograms have logarithmic buckets: bucket k counts durations in
+ * [2^(k-1), 2^k) ns.
+ */
+public class RegisterMetrics {
+
+	public static final int NM_ADDRESSES = RegisterInterface.SHADOW_SIZE;
+	public static final int NM_BUCKETS = 40;
+
+	private final AtomicLongArray reads_ = new AtomicLongArray(NM_ADDRESSES);
+	private final AtomicLongArray writes_ = new AtomicLongArray(NM_ADDRESSES);
+	private final AtomicLongArray errors_ = new AtomicLongArray(NM_ADDRESSES);
+	private final AtomicLongArray latency_ = new AtomicLongArray(NM_ADDRESSES * NM_BUCKETS);
+
+	private final AtomicLong transactions_ = new AtomicLong();
+	private final AtomicLong failedTransactions_ = new AtomicLong();
+	private final AtomicLong bytesSent_ = new AtomicLong();
+	private final AtomicLong bytesReceived_ = new AtomicLong();
+
+	private static final int NM_LANES = Priority.values().length;
+
+	private final AtomicLongArray queueWaitCount_ = new AtomicLongArray(NM_LANES);
+	private final AtomicLongArray queueWaitTotal_ = new AtomicLongArray(NM_LANES);
+	private final AtomicLongArray queueWaitMax_ = new AtomicLongArray(NM_LANES);
+	private final AtomicLongArray queueWait_ = new AtomicLongArray(NM_LANES * NM_BUCKETS);
+
+	private volatile long resetTime_ = System.nanoTime();
+
+	/**
+	 * Records the access to a register.
+	 *
+	 * @param address Register address.
+	 * @param write True for a write, false for a read.
+	 * @param success Whether the access succeeded.
+	 * @param nanos Duration of the transaction carrying the access.
+	 */
+	public void record(int address, boolean write, boolean success, long nanos) {
+		if(address < 0 || address >= NM_ADDRESSES)
+			return;
+
+		if(write) {
+			writes_.getAndIncrement(address);
+		} else {
+			reads_.getAndIncrement(address);
+		}
+
+		if(!success)
+			errors_.getAndIncrement(address);
+
+		latency_.getAndIncrement(address * NM_BUCKETS + bucket(nanos));
+	}
+
+	/**
+	 * Records a transaction on the link.
+	 *
+	 * @param bytesSent Number of bytes sent to the board.
+	 * @param bytesReceived Number of bytes received from the board.
+	 * @param success Whether the transaction succeeded.
+	 */
+	public void recordTransaction(int bytesSent, int bytesReceived, boolean success) {
+		transactions_.getAndIncrement();
+		if(!success)
+			failedTransactions_.getAndIncrement();
+		bytesSent_.getAndAdd(bytesSent);
+		bytesReceived_.getAndAdd(bytesReceived);
+	}
+
+	/**
+	 * Records the time a request spent queued before being served.
+	 *
+	 * @param priority Lane of the request.
+	 * @param nanos Waiting time in ns.
+	 */
+	public void recordQueueWait(Priority priority, long nanos) {
+		int lane = priority.ordinal();
+
+		queueWaitCount_.getAndIncrement(lane);
+		queueWaitTotal_.getAndAdd(lane, nanos);
+		queueWait_.getAndIncrement(lane * NM_BUCKETS + bucket(nanos));
+
+		long max;
+		while(nanos > (max = queueWaitMax_.get(lane))) {
+			if(queueWaitMax_.compareAndSet(lane, max, nanos))
+				break;
+		}
+	}
+
+	public void reset() {
+		for(int i=0; i<NM_ADDRESSES; i++) {
+			reads_.set(i, 0);
+			writes_.set(i, 0);
+			errors_.set(i, 0);
+		}
+		for(int i=0; i<latency_.length(); i++) {
+			latency_.set(i, 0);
+		}
+		for(int i=0; i<NM_LANES; i++) {
+			queueWaitCount_.set(i, 0);
+			queueWaitTotal_.set(i, 0);
+			queueWaitMax_.set(i, 0);
+		}
+		for(int i=0; i<queueWait_.length(); i++) {
+			queueWait_.set(i, 0);
+		}
+		transactions_.set(0);
+		failedTransactions_.set(0);
+		bytesSent_.set(0);
+		bytesReceived_.set(0);
+		resetTime_ = System.nanoTime();
+	}
+
+	public long getBytesSent() {
+		return bytesSent_.get();
+	}
+
+	public Snapshot snapshot() {
+		long[] reads = new long[NM_ADDRESSES];
+		long[] writes = new long[NM_ADDRESSES];
+		long[] errors = new long[NM_ADDRESSES];
+		long[] latency = new long[latency_.length()];
+
+		for(int i=0; i<NM_ADDRESSES; i++) {
+			reads[i] = reads_.get(i);
+			writes[i] = writes_.get(i);
+			errors[i] = errors_.get(i);
+		}
+		for(int i=0; i<latency.length; i++) {
+			latency[i] = latency_.get(i);
+		}
+
+		long[] waitCount = new long[NM_LANES];
+		long[] waitTotal = new long[NM_LANES];
+		long[] waitMax = new long[NM_LANES];
+		long[] wait = new long[queueWait_.length()];
+		for(int i=0; i<NM_LANES; i++) {
+			waitCount[i] = queueWaitCount_.get(i);
+			waitTotal[i] = queueWaitTotal_.get(i);
+			waitMax[i] = queueWaitMax_.get(i);
+		}
+		for(int i=0; i<wait.length; i++) {
+			wait[i] = queueWait_.get(i);
+		}
+
+		return new Snapshot(reads, writes, errors, latency, transactions_.get(), failedTransactions_.get(),
+				bytesSent_.get(), bytesReceived_.get(), System.nanoTime() - resetTime_,
+				waitCount, waitTotal, waitMax, wait);
+	}
+
+	/**
+	 * Returns the histogram bucket of a duration.
+	 *
+	 * @param nanos Duration in ns.
+	 * @return Bucket index.
+	 */
+	public static int bucket(long nanos) {
+		if(nanos <= 0)
+			return 0;
+		return Math.min(NM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	/**
+	 * Immutable copy of the metrics. Methods taking a first address and a count
+	 * aggregate a range of registers.
+	 */
+	public static class Snapshot {
+
+		private final long[] reads_;
+		private final long[] writes_;
+		private final long[] errors_;
+		private final long[] latency_;
+		private final long transactions_;
+		private final long failedTransactions_;
+		private final long bytesSent_;
+		private final long bytesReceived_;
+		private final long durationNanos_;
+		private final long[] queueWaitCount_;
+		private final long[] queueWaitTotal_;
+		private final long[] queueWaitMax_;
+		private final long[] queueWait_;
+
+		private Snapshot(long[] reads, long[] writes, long[] errors, long[] latency, long transactions,
+						 long failedTransactions, long bytesSent, long bytesReceived, long durationNanos,
+						 long[] queueWaitCount, long[] queueWaitTotal, long[] queueWaitMax, long[] queueWait) {
+			reads_ = reads;
+			writes_ = writes;
+			errors_ = errors;
+			latency_ = latency;
+			transactions_ = transactions;
+			failedTransactions_ = failedTransactions;
+			bytesSent_ = bytesSent;
+			bytesReceived_ = bytesReceived;
+			durationNanos_ = durationNanos;
+			queueWaitCount_ = queueWaitCount;
+			queueWaitTotal_ = queueWaitTotal;
+			queueWaitMax_ = queueWaitMax;
+			queueWait_ = queueWait;
+		}
+
+		public long getReadCount(int address) {
+			return getReadCount(address, 1);
+		}
+
+		public long getReadCount(int firstAddress, int count) {
+			return sum(reads_, firstAddress, count);
+		}
+
+		public long getWriteCount(int address) {
+			return getWriteCount(address, 1);
+		}
+
+		public long getWriteCount(int firstAddress, int count) {
+			return sum(writes_, firstAddress, count);
+		}
+
+		public long getErrorCount(int address) {
+			return getErrorCount(address, 1);
+		}
+
+		public long getErrorCount(int firstAddress, int count) {
+			return sum(errors_, firstAddress, count);
+		}
+
+		public long[] getLatencyHistogram(int address) {
+			return getLatencyHistogram(address, 1);
+		}
+
+		public long[] getLatencyHistogram(int firstAddress, int count) {
+			long[] histogram = new long[NM_BUCKETS];
+			for(int a=Math.max(0, firstAddress); a<Math.min(NM_ADDRESSES, firstAddress + count); a++) {
+				for(int b=0; b<NM_BUCKETS; b++) {
+					histogram[b] += latency_[a * NM_BUCKETS + b];
+				}
+			}
+			return histogram;
+		}
+
+		/**
+		 * Returns an upper bound of a latency percentile, limited by the resolution
+		 * of the histogram buckets.
+		 *
+		 * @param firstAddress First register.
+		 * @param count Number of registers.
+		 * @param percentile Percentile between 0 and 100.
+		 * @return Latency upper bound in ns, or 0 if no access was recorded.
+		 */
+		public long getLatencyPercentileNanos(int firstAddress, int count, double percentile) {
+			return percentile(getLatencyHistogram(firstAddress, count), percentile);
+		}
+
+		/**
+		 * @param priority Request lane.
+		 * @return Number of requests served from the lane.
+		 */
+		public long getQueueWaitCount(Priority priority) {
+			return queueWaitCount_[priority.ordinal()];
+		}
+
+		public double getMeanQueueWaitNanos(Priority priority) {
+			long n = queueWaitCount_[priority.ordinal()];
+			return n == 0 ? 0 : queueWaitTotal_[priority.ordinal()] / (double) n;
+		}
+
+		public long getMaxQueueWaitNanos(Priority priority) {
+			return queueWaitMax_[priority.ordinal()];
+		}
+
+		public long[] getQueueWaitHistogram(Priority priority) {
+			long[] histogram = new long[NM_BUCKETS];
+			System.arraycopy(queueWait_, priority.ordinal() * NM_BUCKETS, histogram, 0, NM_BUCKETS);
+			return histogram;
+		}
+
+		/**
+		 * Returns an upper bound of a queue waiting time percentile, limited by the
+		 * resolution of the histogram buckets.
+		 *
+		 * @param priority Request lane.
+		 * @param percentile Percentile between 0 and 100.
+		 * @return Waiting time upper bound in ns, or 0 if no request was recorded.
+		 */
+		public long getQueueWaitPercentileNanos(Priority priority, double percentile) {
+			return percentile(getQueueWaitHistogram(priority), percentile);
+		}
+
+		private static long percentile(long[] histogram, double percentile) {
+			long total = 0;
+			for(long n: histogram) {
+				total += n;
+			}
+			if(total == 0)
+				return 0;
+
+			long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.);
+			long cumulated = 0;
+			for(int b=0; b<NM_BUCKETS; b++) {
+				cumulated += histogram[b];
+				if(cumulated >= rank && cumulated > 0) {
+					return 1L << b;
+				}
+			}
+			return 1L << (NM_BUCKETS - 1);
+		}
+
+		public long getTransactionCount() {
+			return transactions_;
+		}
+
+		public long getFailedTransactionCount() {
+			return failedTransactions_;
+		}
+
+		public long getBytesSent() {
+			return bytesSent_;
+		}
+
+		public long getBytesReceived() {
+			return bytesReceived_;
+		}
+
+		/**
+		 * @return Time elapsed between the last reset and the snapshot, in ns.
+		 */
+		public long getDurationNanos() {
+			return durationNanos_;
+		}
+
+		private static long sum(long[] array, int first, int count) {
+			long s = 0;
+			for(int a=Math.max(0, first); a<Math.min(NM_ADDRESSES, first + count); a++) {
+				s += array[a];
+			}
+			return s;
+		}
+	}
+}
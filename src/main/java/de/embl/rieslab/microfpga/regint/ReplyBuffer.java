@@ -0,0 +1,180 @@
+package de.embl.rieslab.microfpga.regint;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Receive buffer filled by serial data events and drained by the thread waiting
+ * for replies. Bytes are appended to a reusable ring buffer as they arrive, in
+ * fragments of any size, and the waiting thread is only woken up once the bytes
+ * it waits for are all there or its deadline elapsed. Replies are taken in the
+ * order the bytes arrived, so requests complete in the order they were sent.
+ *
+ * A read that times out leaves the buffer out of sync: the rest of its reply may
+ * still be on its way. {@link #resync(long, long)} then waits for the line to go
+ * quiet before the next request is sent, so that late bytes are not taken for
+ * the next reply.
+ *
+ * A single thread takes bytes at a time, while another one appends them.
+ */
+public class ReplyBuffer {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	// ring buffer, only grown when needed
+	private byte[] ring_;
+	private int head_;
+	private int size_;
+
+	// thread waiting for a reply, and number of bytes it waits for
+	private Thread waiter_;
+	private int needed_;
+
+	// set when a read timed out, and time of the timeout or of the last received byte
+	private boolean stale_;
+	private long lastAppend_;
+
+	public ReplyBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public ReplyBuffer(int capacity) {
+		ring_ = new byte[Math.max(4, capacity)];
+	}
+
+	/**
+	 * Appends received bytes, waking up the waiting thread if its reply is complete.
+	 *
+	 * @param data Received bytes.
+	 * @param length Number of bytes from the start of data.
+	 */
+	public void append(byte[] data, int length) {
+		Thread waiter = null;
+		synchronized (this) {
+			if(size_ + length > ring_.length)
+				grow(size_ + length);
+
+			int tail = (head_ + size_) % ring_.length;
+			int n = Math.min(length, ring_.length - tail);
+			System.arraycopy(data, 0, ring_, tail, n);
+			System.arraycopy(data, n, ring_, 0, length - n);
+			size_ += length;
+			lastAppend_ = System.nanoTime();
+
+			if(waiter_ != null && size_ >= needed_)
+				waiter = waiter_;
+		}
+		if(waiter != null)
+			LockSupport.unpark(waiter);
+	}
+
+	/**
+	 * Takes bytes from the buffer, waiting for them at most until the timeout.
+	 *
+	 * @param dest Array receiving the bytes.
+	 * @param length Number of bytes to take into the start of dest.
+	 * @param timeoutNanos Maximum waiting time in ns.
+	 * @return Number of bytes taken, smaller than length if the timeout elapsed, in
+	 * which case the buffer is out of sync until {@link #resync(long, long)}.
+	 */
+	public int take(byte[] dest, int length, long timeoutNanos) {
+		long deadline = System.nanoTime() + timeoutNanos;
+		boolean interrupted = false;
+		try {
+			while(true) {
+				synchronized (this) {
+					long remaining = deadline - System.nanoTime();
+					if(size_ >= length || remaining <= 0) {
+						waiter_ = null;
+						if(size_ < length) {
+							stale_ = true;
+							lastAppend_ = System.nanoTime();
+						}
+						return copyOut(dest, Math.min(length, size_));
+					}
+					waiter_ = Thread.currentThread();
+					needed_ = length;
+				}
+				LockSupport.parkNanos(this, deadline - System.nanoTime());
+				if(Thread.interrupted())
+					interrupted = true;
+			}
+		} finally {
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Discards the buffered bytes, for instance late replies to timed out requests.
+	 *
+	 * @return Number of bytes discarded.
+	 */
+	public synchronized int clear() {
+		int n = size_;
+		head_ = 0;
+		size_ = 0;
+		return n;
+	}
+
+	/**
+	 * Discards the buffered bytes before a new request. If a read timed out since the
+	 * last call, also waits until no byte was received for quietNanos, discarding the
+	 * late bytes arriving in the meantime.
+	 *
+	 * @param quietNanos Time without received byte after which the line is quiet, in ns.
+	 * @param timeoutNanos Maximum waiting time in ns.
+	 * @return Number of bytes discarded, or -1 if the line did not go quiet before the
+	 * timeout, in which case the buffer remains out of sync.
+	 */
+	public int resync(long quietNanos, long timeoutNanos) {
+		long deadline = System.nanoTime() + timeoutNanos;
+		int discarded = 0;
+		while(true) {
+			long quietUntil;
+			synchronized (this) {
+				discarded += clear();
+				if(!stale_)
+					return discarded;
+
+				long now = System.nanoTime();
+				quietUntil = lastAppend_ + quietNanos;
+				if(now - quietUntil >= 0) {
+					stale_ = false;
+					return discarded;
+				}
+				if(now - deadline >= 0)
+					return -1;
+			}
+			LockSupport.parkNanos(this, Math.min(quietUntil, deadline) - System.nanoTime());
+		}
+	}
+
+	/**
+	 * @return True if a read timed out and the buffer was not resynchronized since.
+	 */
+	public synchronized boolean isStale() {
+		return stale_;
+	}
+
+	public synchronized int available() {
+		return size_;
+	}
+
+	private int copyOut(byte[] dest, int length) {
+		int n = Math.min(length, ring_.length - head_);
+		System.arraycopy(ring_, head_, dest, 0, n);
+		System.arraycopy(ring_, 0, dest, n, length - n);
+		head_ = (head_ + length) % ring_.length;
+		size_ -= length;
+		return length;
+	}
+
+	private void grow(int capacity) {
+		byte[] ring = new byte[Math.max(capacity, 2 * ring_.length)];
+		int n = Math.min(size_, ring_.length - head_);
+		System.arraycopy(ring_, head_, ring, 0, n);
+		System.arraycopy(ring_, 0, ring, n, size_ - n);
+		ring_ = ring;
+		head_ = 0;
+	}
+}
@@ -0,0 +1,143 @@
+package de.embl.rieslab.microfpga.regint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+/**
+ * Transport over the USB-serial port of an Alchitry board, using jSerialComm.
+ */
+public class SerialTransport implements Transport {
+
+	private static String ALCHITRY = "Alchitry";
+
+	public static final int BAUD_RATE = 57600;
+	public static final int READ_TIMEOUT_MS = 1000;
+
+	private final String portName_;
+	private SerialPort serialPort_;
+	private volatile int readTimeoutMs_ = READ_TIMEOUT_MS;
+
+	/**
+	 * Creates a transport connecting to the first Alchitry board found.
+	 */
+	public SerialTransport() {
+		this(null);
+	}
+
+	/**
+	 * Creates a transport connecting to a specific port.
+	 *
+	 * @param portName System port name (e.g. COM3 or ttyUSB0), or null to
+	 *                 connect to the first Alchitry board found.
+	 */
+	public SerialTransport(String portName) {
+		portName_ = portName;
+	}
+
+	/**
+	 * Lists the system names of the ports connected to an Alchitry board.
+	 *
+	 * @return Port names, possibly empty.
+	 */
+	public static List<String> findPorts() {
+		List<String> names = new ArrayList<>();
+		for(SerialPort port: SerialPort.getCommPorts()) {
+			if(port.getPortDescription() != null && port.getPortDescription().contains(ALCHITRY)) {
+				names.add(port.getSystemPortName());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * @return Name of the port this transport connects to, or null if it connects
+	 * to the first Alchitry board found.
+	 */
+	public String getPortName() {
+		return portName_;
+	}
+
+	/**
+	 * Sets the read timeout, for instance to probe a port quickly before using the
+	 * default timeout. Takes effect immediately if the port is open.
+	 *
+	 * @param ms Timeout in ms.
+	 */
+	public void setReadTimeout(int ms) {
+		readTimeoutMs_ = ms;
+		SerialPort port = serialPort_;
+		if(port != null && port.isOpen())
+			configure(port);
+	}
+
+	public int getReadTimeout() {
+		return readTimeoutMs_;
+	}
+
+	@Override
+	public boolean open() {
+		if(portName_ != null) {
+			serialPort_ = SerialPort.getCommPort(portName_);
+		} else {
+			SerialPort[] portsList = SerialPort.getCommPorts();
+
+			// connects to the first Alchitry board we find
+			for(SerialPort port: portsList) {
+				if(port.getPortDescription() != null && port.getPortDescription().contains(ALCHITRY)) {
+					serialPort_ = port;
+					break;
+				}
+			}
+		}
+
+		if(serialPort_ == null)
+			return false;
+
+		if(!serialPort_.openPort())
+			return false;
+
+		serialPort_.setComPortParameters(BAUD_RATE, 8, 1, 0);
+		configure(serialPort_);
+
+		return true;
+	}
+
+	/**
+	 * Sets the timeouts of the open port, by default blocking reads with the read
+	 * timeout.
+	 *
+	 * @param port Open port.
+	 */
+	protected void configure(SerialPort port) {
+		port.setComPortTimeouts(SerialPort.TIMEOUT_READ_BLOCKING, readTimeoutMs_, 0);
+	}
+
+	/**
+	 * @return Port, or null if the transport was never opened.
+	 */
+	protected SerialPort getSerialPort() {
+		return serialPort_;
+	}
+
+	@Override
+	public boolean close() {
+		return serialPort_ != null && serialPort_.closePort();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return serialPort_ != null && serialPort_.isOpen();
+	}
+
+	@Override
+	public int write(byte[] buffer, int length) {
+		return serialPort_.writeBytes(buffer, length);
+	}
+
+	@Override
+	public int read(byte[] buffer, int length) {
+		return serialPort_.readBytes(buffer, length);
+	}
+}
@@ -0,0 +1,248 @@
+package de.embl.rieslab.microfpga.regint;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import de.embl.rieslab.microfpga.devices.*;
+
+/**
+ * In-memory MicroFPGA register file speaking the register interface protocol.
+ * It can replace a {@link SerialTransport} to exercise or benchmark the library
+ * without a board.
+ *
+ * The simulated firmware reports {@link Signal#CURRENT_VERSION} and a configurable
+ * board id, clamps written values to the maximum of each register, ignores writes
+ * to the read-only analog inputs and answers {@link Signal#ERROR_UNKNOWN_COMMAND}
+ * when reading an unknown address. An optional per-byte latency emulates the
+ * serial link.
+ */
+public class SimulatedTransport implements Transport {
+
+	/**
+	 * Time needed to transfer one byte (8 data bits, 1 start and 1 stop bit) at 57600 baud.
+	 */
+	public static final long BYTE_NANOS_57600 = 10L * 1000000000L / SerialTransport.BAUD_RATE;
+
+
+	private final int[] registers_;
+	private final int id_;
+
+	private boolean open_;
+	private boolean unplugged_;
+	private long byteLatencyNanos_;
+
+	// frame being parsed
+	private final byte[] header_ = new byte[5];
+	private int headerCount_;
+	private int dataByte_;
+	private int dataValue_;
+	private int wordsLeft_;
+	private int address_;
+	private boolean write_;
+	private boolean increment_;
+
+	// bytes waiting to be read by the host
+	private byte[] reply_ = new byte[256];
+	private int replyStart_;
+	private int replyEnd_;
+
+	public SimulatedTransport() {
+		this(Signal.ID_AU);
+	}
+
+	/**
+	 * @param id Board id returned when reading {@link Signal#ADDR_ID}.
+	 */
+	public SimulatedTransport(int id) {
+		id_ = id;
+		registers_ = new int[Signal.NM_REGISTERS];
+	}
+
+	/**
+	 * Sets the time spent per byte sent or received, 0 to disable.
+	 *
+	 * @param nanos Latency per byte in ns, e.g. {@link #BYTE_NANOS_57600}.
+	 */
+	public synchronized void setByteLatencyNanos(long nanos) {
+		byteLatencyNanos_ = Math.max(0, nanos);
+	}
+
+	/**
+	 * Sets the value returned by an analog input channel.
+	 *
+	 * @param channel Analog input channel.
+	 * @param value Value between 0 and 65535.
+	 */
+	public synchronized void setAnalogInput(int channel, int value) {
+		if(channel >= 0 && channel < Signal.NM_AI) {
+			registers_[Signal.ADDR_ANALOG_INPUT + channel] = value;
+		}
+	}
+
+	/**
+	 * Returns the content of a register without going through the protocol.
+	 *
+	 * @param address Register address.
+	 * @return Value, or {@link Signal#ERROR_UNKNOWN_COMMAND} if the address is unknown.
+	 */
+	public synchronized int peek(int address) {
+		return readRegister(address);
+	}
+
+	/**
+	 * Simulates unplugging or plugging the USB cable. Unplugging closes the link and,
+	 * the board being powered through USB, resets its registers. The link cannot be
+	 * opened while unplugged.
+	 *
+	 * @param plugged False to unplug the board.
+	 */
+	public synchronized void setPlugged(boolean plugged) {
+		unplugged_ = !plugged;
+		if(unplugged_) {
+			open_ = false;
+			Arrays.fill(registers_, 0);
+		}
+	}
+
+	@Override
+	public synchronized boolean open() {
+		if(unplugged_)
+			return false;
+
+		open_ = true;
+		headerCount_ = 0;
+		wordsLeft_ = 0;
+		replyStart_ = 0;
+		replyEnd_ = 0;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean close() {
+		open_ = false;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return open_;
+	}
+
+	@Override
+	public synchronized int write(byte[] buffer, int length) {
+		if(!open_)
+			return -1;
+
+		for(int i=0; i<length; i++) {
+			consume(buffer[i]);
+		}
+
+		waitBytes(length);
+
+		return length;
+	}
+
+	@Override
+	public synchronized int read(byte[] buffer, int length) {
+		if(!open_)
+			return -1;
+
+		int n = Math.min(length, replyEnd_ - replyStart_);
+		System.arraycopy(reply_, replyStart_, buffer, 0, n);
+		replyStart_ += n;
+
+		waitBytes(n);
+
+		return n;
+	}
+
+	private void consume(byte b) {
+		if(wordsLeft_ > 0 && write_) {
+			dataValue_ |= (b & 0xff) << (8 * dataByte_);
+
+			if(++dataByte_ == 4) {
+				writeRegister(address_, dataValue_);
+				nextWord();
+				dataByte_ = 0;
+				dataValue_ = 0;
+			}
+			return;
+		}
+
+		header_[headerCount_++] = b;
+		if(headerCount_ == header_.length) {
+			headerCount_ = 0;
+
+			write_ = (header_[0] & 0x80) != 0;
+			increment_ = (header_[0] & 0x40) != 0;
+			wordsLeft_ = (header_[0] & 0x3f) + 1;
+			address_ = (header_[1] & 0xff) | (header_[2] & 0xff) << 8
+					| (header_[3] & 0xff) << 16 | (header_[4] & 0xff) << 24;
+
+			if(!write_) {
+				while(wordsLeft_ > 0) {
+					pushReply(readRegister(address_));
+					nextWord();
+				}
+			}
+		}
+	}
+
+	private void nextWord() {
+		wordsLeft_--;
+		if(increment_)
+			address_++;
+	}
+
+	private int readRegister(int address) {
+		if(address == Signal.ADDR_VERSION) {
+			return Signal.CURRENT_VERSION;
+		} else if(address == Signal.ADDR_ID) {
+			return id_;
+		} else if(address >= 0 && address < Signal.NM_REGISTERS) {
+			return registers_[address];
+		}
+		return Signal.ERROR_UNKNOWN_COMMAND;
+	}
+
+	private void writeRegister(int address, int value) {
+		int max = Signal.getMaxValue(address);
+		if(max < 0)
+			return;
+
+		// registers are unsigned
+		if(value < 0 || value > max)
+			value = max;
+
+		registers_[address] = value;
+	}
+
+	private void pushReply(int value) {
+		if(replyEnd_ + 4 > reply_.length) {
+			int n = replyEnd_ - replyStart_;
+			byte[] b = (n + 4 > reply_.length / 2) ? new byte[2 * reply_.length] : reply_;
+			System.arraycopy(reply_, replyStart_, b, 0, n);
+			reply_ = b;
+			replyStart_ = 0;
+			replyEnd_ = n;
+		}
+
+		reply_[replyEnd_++] = (byte) (value & 0xff);
+		reply_[replyEnd_++] = (byte) ((value >> 8) & 0xff);
+		reply_[replyEnd_++] = (byte) ((value >> 16) & 0xff);
+		reply_[replyEnd_++] = (byte) ((value >> 24) & 0xff);
+	}
+
+	private void waitBytes(int nBytes) {
+		if(byteLatencyNanos_ == 0 || nBytes == 0)
+			return;
+
+		long deadline = System.nanoTime() + nBytes * byteLatencyNanos_;
+		long remaining;
+		while((remaining = deadline - System.nanoTime()) > 0) {
+			if(remaining > 100000) {
+				LockSupport.parkNanos(remaining - 50000);
+			}
+		}
+	}
+}
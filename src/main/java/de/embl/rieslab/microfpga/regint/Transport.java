@@ -0,0 +1,37 @@
+package de.embl.rieslab.microfpga.regint;
+
+/**
+ * Byte-level link between a {@link RegisterInterface} and a MicroFPGA board.
+ *
+ * Implementations are responsible for opening and closing the underlying
+ * channel and for moving raw frames in and out of it. Reads are blocking
+ * until the requested number of bytes is available or the implementation's
+ * timeout has elapsed.
+ */
+public interface Transport {
+
+	boolean open();
+
+	boolean close();
+
+	boolean isOpen();
+
+	/**
+	 * Sends bytes to the board.
+	 *
+	 * @param buffer Bytes to send.
+	 * @param length Number of bytes to send from the start of the buffer.
+	 * @return Number of bytes written, or -1 in case of error.
+	 */
+	int write(byte[] buffer, int length);
+
+	/**
+	 * Reads bytes from the board.
+	 *
+	 * @param buffer Array receiving the bytes.
+	 * @param length Number of bytes to read into the start of the buffer.
+	 * @return Number of bytes read, which can be smaller than length if the timeout
+	 * elapsed, or -1 in case of error.
+	 */
+	int read(byte[] buffer, int length);
+}
@@ -0,0 +1,110 @@
+package de.embl.rieslab.microfpga.regint;
+
+import java.util.Arrays;
+
+/**
+ * Outcome of the read-back of a group of writes, see
+ * {@link RegisterInterface#verify(int[], int[], int)}: for each register, the value
+ * expected and the value read from the board.
+ */
+public class VerificationReport {
+
+	private final int[] addresses_;
+	private final int[] expected_;
+	private final int[] actual_;
+	private final boolean read_;
+
+	protected VerificationReport(int[] addresses, int[] expected, int[] actual, boolean read) {
+		addresses_ = addresses;
+		expected_ = expected;
+		actual_ = actual;
+		read_ = read;
+	}
+
+	/**
+	 * @return True if the registers were read back and all hold the expected value.
+	 */
+	public boolean isVerified() {
+		return read_ && getNumberMismatches() == 0;
+	}
+
+	/**
+	 * @return False if the read-back itself failed, in which case nothing is known
+	 * about the registers.
+	 */
+	public boolean isRead() {
+		return read_;
+	}
+
+	public int getNumberRegisters() {
+		return addresses_.length;
+	}
+
+	public int getNumberMismatches() {
+		if(!read_)
+			return 0;
+
+		int n = 0;
+		for(int i=0; i<addresses_.length; i++) {
+			if(expected_[i] != actual_[i]) n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return Addresses of the registers not holding the expected value.
+	 */
+	public int[] getMismatchAddresses() {
+		int[] mismatches = new int[getNumberMismatches()];
+		int n = 0;
+		for(int i=0; i<addresses_.length && read_; i++) {
+			if(expected_[i] != actual_[i])
+				mismatches[n++] = addresses_[i];
+		}
+		return mismatches;
+	}
+
+	/**
+	 * @param address Register address.
+	 * @return Expected value, or -1 if the register was not verified.
+	 */
+	public int getExpected(int address) {
+		int i = indexOf(address);
+		return i < 0 ? -1 : expected_[i];
+	}
+
+	/**
+	 * @param address Register address.
+	 * @return Value read back, or -1 if the register was not verified or the read failed.
+	 */
+	public int getActual(int address) {
+		int i = indexOf(address);
+		return i < 0 || !read_ ? -1 : actual_[i];
+	}
+
+	private int indexOf(int address) {
+		for(int i=0; i<addresses_.length; i++) {
+			if(addresses_[i] == address)
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		if(!read_)
+			return "[Read-back of "+Arrays.toString(addresses_)+" failed]";
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("[Verified: ").append(addresses_.length - getNumberMismatches())
+				.append("/").append(addresses_.length);
+		for(int i=0; i<addresses_.length; i++) {
+			if(expected_[i] != actual_[i]) {
+				sb.append(", ").append(addresses_[i]).append(": expected ").append(expected_[i])
+						.append(", read ").append(actual_[i]);
+			}
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+}
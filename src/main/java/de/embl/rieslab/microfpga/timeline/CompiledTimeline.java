@@ -0,0 +1,72 @@
+package de.embl.rieslab.microfpga.timeline;
+
+/**
+ * Immutable timeline whose actions are sorted by time and grouped into encoded
+ * frames, one group per distinct time. See {@link Timeline#compile()}.
+ */
+public class CompiledTimeline {
+
+	private final long[] offsets_;
+	private final int[] addresses_;
+	private final int[] values_;
+
+	private final long[] groupOffsets_;
+	private final int[] groupStarts_;
+	private final byte[][] frames_;
+
+	protected CompiledTimeline(long[] offsets, int[] addresses, int[] values,
+							   long[] groupOffsets, int[] groupStarts, byte[][] frames) {
+		offsets_ = offsets;
+		addresses_ = addresses;
+		values_ = values;
+		groupOffsets_ = groupOffsets;
+		groupStarts_ = groupStarts;
+		frames_ = frames;
+	}
+
+	/**
+	 * @return Number of actions.
+	 */
+	public int size() {
+		return offsets_.length;
+	}
+
+	/**
+	 * @param action Index of the action, in time order.
+	 * @return Time offset of the action in ns.
+	 */
+	public long getOffsetNanos(int action) {
+		return offsets_[action];
+	}
+
+	public int getAddress(int action) {
+		return addresses_[action];
+	}
+
+	public int getValue(int action) {
+		return values_[action];
+	}
+
+	/**
+	 * @return Time of the last action in ns.
+	 */
+	public long getDurationNanos() {
+		return offsets_.length == 0 ? 0 : offsets_[offsets_.length - 1];
+	}
+
+	int getNumberGroups() {
+		return groupOffsets_.length;
+	}
+
+	long getGroupOffset(int group) {
+		return groupOffsets_[group];
+	}
+
+	int getGroupStart(int group) {
+		return groupStarts_[group];
+	}
+
+	byte[] getGroupFrames(int group) {
+		return frames_[group];
+	}
+}
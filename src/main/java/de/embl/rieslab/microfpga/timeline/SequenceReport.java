@@ -0,0 +1,100 @@
+package de.embl.rieslab.microfpga.timeline;
+
+/**
+ * Outcome of the streaming of laser sequences: for each block of 16 frames,
+ * whether its sequence registers were written and how late with respect to the
+ * block boundary.
+ */
+public class SequenceReport {
+
+	private final int nFrames_;
+	private final long periodNanos_;
+	private final long[] lateness_;
+	private final boolean[] sent_;
+	private final boolean[] missed_;
+	private final boolean cancelled_;
+
+	protected SequenceReport(int nFrames, long periodNanos, long[] lateness, boolean[] sent,
+							 boolean[] missed, boolean cancelled) {
+		nFrames_ = nFrames;
+		periodNanos_ = periodNanos;
+		lateness_ = lateness;
+		sent_ = sent;
+		missed_ = missed;
+		cancelled_ = cancelled;
+	}
+
+	public int getNumberFrames() {
+		return nFrames_;
+	}
+
+	/**
+	 * @return Camera frame period used to schedule the blocks, in ns.
+	 */
+	public long getPeriodNanos() {
+		return periodNanos_;
+	}
+
+	public int getNumberBlocks() {
+		return sent_.length;
+	}
+
+	/**
+	 * @param block Index of the block.
+	 * @return True if the sequence registers of the block were written.
+	 */
+	public boolean isSent(int block) {
+		return sent_[block];
+	}
+
+	/**
+	 * @param block Index of the block.
+	 * @return True if the block was not written before its boundary, in which case
+	 * the lasers followed the previous block's sequence for at least one frame.
+	 */
+	public boolean isMissed(int block) {
+		return missed_[block];
+	}
+
+	/**
+	 * @param block Index of the block.
+	 * @return Time at which the write completed minus the block boundary, in ns,
+	 * negative if in time.
+	 */
+	public long getLatenessNanos(int block) {
+		return lateness_[block];
+	}
+
+	public int getNumberMissed() {
+		int n = 0;
+		for(boolean b: missed_) {
+			if(b) n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return Largest lateness of the blocks after the first one, in ns.
+	 */
+	public long getMaxLatenessNanos() {
+		long max = Long.MIN_VALUE;
+		for(int b=1; b<lateness_.length; b++) {
+			if(sent_[b] || missed_[b])
+				max = Math.max(max, lateness_[b]);
+		}
+		return max == Long.MIN_VALUE ? 0 : max;
+	}
+
+	public boolean isCancelled() {
+		return cancelled_;
+	}
+
+	@Override
+	public String toString() {
+		return "[Frames: "+nFrames_
+				+", blocks: "+getNumberBlocks()
+				+", missed: "+getNumberMissed()
+				+", max lateness: "+getMaxLatenessNanos()/1000.+" us"
+				+(cancelled_ ? ", cancelled" : "")+"]";
+	}
+}
@@ -0,0 +1,247 @@
+package de.embl.rieslab.microfpga.timeline;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+import de.embl.rieslab.microfpga.devices.CameraParameters;
+import de.embl.rieslab.microfpga.devices.Signal;
+import de.embl.rieslab.microfpga.regint.Priority;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+
+/**
+ * Streams laser sequences longer than the 16 frames of the sequence registers.
+ * The patterns are cut in blocks of 16 frames, each encoded as one burst write of
+ * the sequence registers of all lasers (most significant bit = first frame).
+ *
+ * The first block is written before the camera trigger is started. The frame
+ * period (delay + exposure + readout) of the camera parameters then gives the time
+ * of each 16-frame boundary, and the next block is written shortly before it,
+ * during the readout of the last frame of the current block. A block that could
+ * not be written before its boundary is reported as missed; if the streamer falls
+ * behind by whole blocks, these are skipped to resynchronise with the camera.
+ *
+ * If the board is accessed from other threads during the streaming, the register
+ * interface must be thread-safe (see {@link de.embl.rieslab.microfpga.regint.ConcurrentRegisterInterface}).
+ */
+public class SequenceStreamer {
+
+	public static final int FRAMES_PER_BLOCK = 16;
+
+	private final RegisterInterface regint_;
+	private volatile long spinNanos_ = TimelinePlayer.DEFAULT_SPIN_NANOS;
+	private volatile long leadNanos_ = -1;
+
+	private Thread thread_;
+	private volatile boolean cancelled_;
+
+	public SequenceStreamer(RegisterInterface regint) {
+		regint_ = regint;
+	}
+
+	/**
+	 * Sets how long before each 16-frame boundary the next block is written. By
+	 * default, half of the readout time.
+	 *
+	 * @param leadNanos Time in ns, or a negative value for the default.
+	 */
+	public void setLeadNanos(long leadNanos) {
+		leadNanos_ = leadNanos;
+	}
+
+	public long getLeadNanos() {
+		return leadNanos_;
+	}
+
+	/**
+	 * Sets how long before each write the streamer stops parking and starts spinning.
+	 *
+	 * @param spinNanos Spinning time in ns.
+	 */
+	public void setSpinNanos(long spinNanos) {
+		spinNanos_ = Math.max(0, spinNanos);
+	}
+
+	/**
+	 * Converts a string of 0 and 1 to a pattern, one character per frame.
+	 *
+	 * @param s Binary string of any length.
+	 * @return Pattern.
+	 * @throws IllegalArgumentException If the string contains other characters.
+	 */
+	public static boolean[] parsePattern(String s) {
+		boolean[] pattern = new boolean[s.length()];
+		for(int i=0; i<s.length(); i++) {
+			char c = s.charAt(i);
+			if(c != '0' && c != '1')
+				throw new IllegalArgumentException("Not a binary string: "+s);
+			pattern[i] = c == '1';
+		}
+		return pattern;
+	}
+
+	/**
+	 * Encodes the sequence register value of a block of 16 frames, frames beyond the
+	 * end of the pattern being off.
+	 *
+	 * @param pattern Pattern of one laser.
+	 * @param block Index of the block.
+	 * @return Sequence value, with the first frame of the block as most significant bit.
+	 */
+	public static int encodeBlock(boolean[] pattern, int block) {
+		int value = 0;
+		for(int k=0; k<FRAMES_PER_BLOCK; k++) {
+			int frame = block * FRAMES_PER_BLOCK + k;
+			if(frame < pattern.length && pattern[frame])
+				value |= 1 << (FRAMES_PER_BLOCK - 1 - k);
+		}
+		return value;
+	}
+
+	/**
+	 * Starts the camera trigger and streams the patterns of lasers 0 to
+	 * patterns.length-1. The camera trigger is stopped after the last frame. The
+	 * camera parameters should already be set on the board.
+	 *
+	 * @param patterns Patterns, one per laser, all of the same length.
+	 * @param camera Parameters of the camera trigger.
+	 * @return Future completed with the report once the patterns have been streamed
+	 * or the streaming was cancelled.
+	 * @throws IllegalArgumentException If the patterns are empty or of different lengths.
+	 */
+	public synchronized CompletableFuture<SequenceReport> start(boolean[][] patterns, CameraParameters camera) {
+		if(isStreaming())
+			throw new IllegalStateException("A sequence is already streaming.");
+		if(patterns.length == 0 || patterns.length > Signal.NM_LASER)
+			throw new IllegalArgumentException("Between 1 and "+Signal.NM_LASER+" patterns expected.");
+
+		int nFrames = patterns[0].length;
+		for(boolean[] p: patterns) {
+			if(p.length != nFrames || nFrames == 0)
+				throw new IllegalArgumentException("Patterns must be non-empty and of the same length.");
+		}
+
+		long period = Math.round((camera.getDelayMs() + camera.getExposureMs() + camera.getReadoutMs()) * 1e6);
+		if(period <= 0)
+			throw new IllegalArgumentException("The camera frame period must be positive.");
+
+		long lead = leadNanos_ >= 0 ? leadNanos_ : Math.round(camera.getReadoutMs() * 1e6 / 2);
+
+		// pre-encoded burst of each block
+		int nBlocks = (nFrames + FRAMES_PER_BLOCK - 1) / FRAMES_PER_BLOCK;
+		int[] values = new int[patterns.length];
+		byte[][] frames = new byte[nBlocks][];
+		for(int b=0; b<nBlocks; b++) {
+			for(int l=0; l<patterns.length; l++) {
+				values[l] = encodeBlock(patterns[l], b);
+			}
+			frames[b] = new byte[RegisterInterface.HEADER_LENGTH + 4 * patterns.length];
+			RegisterInterface.encodeBurstWrite(frames[b], 0, Signal.ADDR_SEQ, values, 0, patterns.length);
+		}
+
+		CompletableFuture<SequenceReport> future = new CompletableFuture<>();
+		cancelled_ = false;
+
+		Thread t = new Thread(() -> {
+			SequenceReport result;
+			try {
+				result = run(frames, nFrames, period, lead);
+			} catch (RuntimeException e) {
+				finished();
+				future.completeExceptionally(e);
+				return;
+			}
+			// a new run can be started as soon as the future completes
+			finished();
+			future.complete(result);
+		}, "MicroFPGA sequence streamer");
+		t.setDaemon(true);
+		t.setPriority(Thread.MAX_PRIORITY);
+		thread_ = t;
+		t.start();
+
+		return future;
+	}
+
+	/**
+	 * Streams the patterns and waits for the end.
+	 *
+	 * @see #start(boolean[][], CameraParameters)
+	 */
+	public SequenceReport stream(boolean[][] patterns, CameraParameters camera) {
+		return start(patterns, camera).join();
+	}
+
+	/**
+	 * Stops the streaming and the camera trigger.
+	 */
+	public synchronized void cancel() {
+		cancelled_ = true;
+		if(thread_ != null)
+			LockSupport.unpark(thread_);
+	}
+
+	public synchronized boolean isStreaming() {
+		return thread_ != null;
+	}
+
+	private synchronized void finished() {
+		thread_ = null;
+	}
+
+	private SequenceReport run(byte[][] frames, int nFrames, long period, long lead) {
+		int nBlocks = frames.length;
+		long[] lateness = new long[nBlocks];
+		boolean[] sent = new boolean[nBlocks];
+		boolean[] missed = new boolean[nBlocks];
+
+		if(!regint_.writeFrames(frames[0], frames[0].length, Priority.URGENT)
+				|| !regint_.write(Signal.ADDR_START_TRIGGER, 1, Priority.URGENT)) {
+			for(int b=0; b<nBlocks; b++)
+				missed[b] = true;
+			return new SequenceReport(nFrames, period, lateness, sent, missed, cancelled_);
+		}
+		long t0 = System.nanoTime();
+		sent[0] = true;
+
+		for(int b=1; b<nBlocks && !cancelled_; b++) {
+			long boundary = t0 + b * FRAMES_PER_BLOCK * period;
+
+			long now = System.nanoTime();
+			if(now < boundary) {
+				if(!waitUntil(boundary - lead))
+					break;
+			} else if(b + 1 < nBlocks && now >= boundary + FRAMES_PER_BLOCK * period - lead) {
+				// whole block missed, skip it to resynchronise with the camera
+				lateness[b] = now - boundary;
+				missed[b] = true;
+				continue;
+			}
+
+			sent[b] = regint_.writeFrames(frames[b], frames[b].length, Priority.URGENT);
+			lateness[b] = System.nanoTime() - boundary;
+			missed[b] = !sent[b] || lateness[b] > 0;
+		}
+
+		// stops the camera after the last frame
+		if(!cancelled_)
+			waitUntil(t0 + nFrames * period);
+		regint_.write(Signal.ADDR_START_TRIGGER, 0, Priority.URGENT);
+
+		return new SequenceReport(nFrames, period, lateness, sent, missed, cancelled_);
+	}
+
+	/**
+	 * Parks until close to the target, then spins.
+	 *
+	 * @return False if cancelled.
+	 */
+	private boolean waitUntil(long target) {
+		long remaining;
+		while((remaining = target - System.nanoTime()) > 0 && !cancelled_) {
+			long spin = spinNanos_;
+			if(remaining > spin)
+				LockSupport.parkNanos(this, remaining - spin);
+		}
+		return !cancelled_;
+	}
+}
@@ -0,0 +1,136 @@
+package de.embl.rieslab.microfpga.timeline;
+
+import java.util.Arrays;
+
+import de.embl.rieslab.microfpga.devices.Signal;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+
+/**
+ * List of register writes to be performed at given times, for instance laser
+ * sequences, PWM powers or TTLs changed during an acquisition. The time offsets are
+ * relative to the start of the playback; starting the camera is itself an action
+ * (see {@link #addCameraStart(long)}).
+ *
+ * A timeline is compiled once into encoded frames, which can then be played any
+ * number of times by a {@link TimelinePlayer}.
+ */
+public class Timeline {
+
+	private long[] offsets_ = new long[16];
+	private int[] addresses_ = new int[16];
+	private int[] values_ = new int[16];
+	private int size_;
+
+	/**
+	 * Adds a register write.
+	 *
+	 * @param offsetNanos Time of the write in ns after the start of the playback.
+	 * @param address Register address.
+	 * @param value Register value, between 0 and {@link Signal#getMaxValue(int)}.
+	 * @return This timeline.
+	 * @throws IllegalArgumentException If the offset is negative, the register
+	 * read-only or the value out of range.
+	 */
+	public Timeline add(long offsetNanos, int address, int value) {
+		if(offsetNanos < 0)
+			throw new IllegalArgumentException("Negative time offset: "+offsetNanos);
+		if(address < 0 || address >= Signal.ADDR_ANALOG_INPUT)
+			throw new IllegalArgumentException("Not a writable register: "+address);
+		if(!Signal.isAllowed(address, value))
+			throw new IllegalArgumentException("Value "+value+" out of range for register "+address
+					+" (0 to "+Signal.getMaxValue(address)+").");
+
+		if(size_ == offsets_.length) {
+			offsets_ = Arrays.copyOf(offsets_, 2 * size_);
+			addresses_ = Arrays.copyOf(addresses_, 2 * size_);
+			values_ = Arrays.copyOf(values_, 2 * size_);
+		}
+
+		offsets_[size_] = offsetNanos;
+		addresses_[size_] = address;
+		values_[size_] = value;
+		size_++;
+
+		return this;
+	}
+
+	public Timeline addCameraStart(long offsetNanos) {
+		return add(offsetNanos, Signal.ADDR_START_TRIGGER, 1);
+	}
+
+	public Timeline addCameraStop(long offsetNanos) {
+		return add(offsetNanos, Signal.ADDR_START_TRIGGER, 0);
+	}
+
+	public int size() {
+		return size_;
+	}
+
+	/**
+	 * Sorts the actions by time and encodes them into write frames. Actions sharing
+	 * the same time are sent in a single call, with consecutive addresses merged into
+	 * bursts. Actions with equal times keep the order in which they were added.
+	 *
+	 * @return Compiled timeline.
+	 */
+	public CompiledTimeline compile() {
+		int n = size_;
+
+		// stable sort of the action indices by time
+		Integer[] order = new Integer[n];
+		for(int i=0; i<n; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(offsets_[a], offsets_[b]));
+
+		long[] offsets = new long[n];
+		int[] addresses = new int[n];
+		int[] values = new int[n];
+		for(int i=0; i<n; i++) {
+			offsets[i] = offsets_[order[i]];
+			addresses[i] = addresses_[order[i]];
+			values[i] = values_[order[i]];
+		}
+
+		int nGroups = 0;
+		for(int i=0; i<n; i++) {
+			if(i == 0 || offsets[i] != offsets[i-1])
+				nGroups++;
+		}
+
+		long[] groupOffsets = new long[nGroups];
+		int[] groupStarts = new int[nGroups + 1];
+		byte[][] frames = new byte[nGroups][];
+
+		int g = 0;
+		int i = 0;
+		while(i < n) {
+			int end = i;
+			while(end < n && offsets[end] == offsets[i]) {
+				end++;
+			}
+
+			byte[] buff = new byte[(end - i) * RegisterInterface.WRITE_FRAME_LENGTH];
+			int pos = 0;
+			int j = i;
+			while(j < end) {
+				int k = j + 1;
+				while(k < end && k - j < RegisterInterface.MAX_BURST && addresses[k] == addresses[k-1] + 1) {
+					k++;
+				}
+				pos = RegisterInterface.encodeBurstWrite(buff, pos, addresses[j], values, j, k - j);
+				j = k;
+			}
+
+			groupOffsets[g] = offsets[i];
+			groupStarts[g] = i;
+			frames[g] = Arrays.copyOf(buff, pos);
+
+			g++;
+			i = end;
+		}
+		groupStarts[nGroups] = n;
+
+		return new CompiledTimeline(offsets, addresses, values, groupOffsets, groupStarts, frames);
+	}
+}
@@ -0,0 +1,140 @@
+package de.embl.rieslab.microfpga.timeline;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+import de.embl.rieslab.microfpga.regint.Priority;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+
+/**
+ * Plays compiled timelines from a dedicated maximum-priority thread. The thread
+ * parks until shortly before each action, then spins on System.nanoTime() until
+ * the scheduled time and sends the pre-encoded frames.
+ *
+ * If the board is accessed from other threads during the playback, the register
+ * interface must be thread-safe (see {@link de.embl.rieslab.microfpga.regint.ConcurrentRegisterInterface}).
+ */
+public class TimelinePlayer {
+
+	public static final long DEFAULT_SPIN_NANOS = 200000;
+
+	private final RegisterInterface regint_;
+	private volatile long spinNanos_ = DEFAULT_SPIN_NANOS;
+
+	private Thread thread_;
+	private volatile boolean cancelled_;
+
+	public TimelinePlayer(RegisterInterface regint) {
+		regint_ = regint;
+	}
+
+	/**
+	 * Sets how long before each action the player stops parking and starts spinning.
+	 * Larger values reduce the timing error at the cost of CPU usage.
+	 *
+	 * @param spinNanos Spinning time in ns.
+	 */
+	public void setSpinNanos(long spinNanos) {
+		spinNanos_ = Math.max(0, spinNanos);
+	}
+
+	public long getSpinNanos() {
+		return spinNanos_;
+	}
+
+	/**
+	 * Starts playing a timeline. Only one timeline can be played at a time.
+	 *
+	 * @param timeline Compiled timeline.
+	 * @return Future completed with the report once the last action has been sent
+	 * or the playback was cancelled.
+	 */
+	public synchronized CompletableFuture<TimelineReport> start(CompiledTimeline timeline) {
+		if(isPlaying())
+			throw new IllegalStateException("A timeline is already playing.");
+
+		CompletableFuture<TimelineReport> future = new CompletableFuture<>();
+		cancelled_ = false;
+
+		Thread t = new Thread(() -> {
+			TimelineReport result;
+			try {
+				result = run(timeline);
+			} catch (RuntimeException e) {
+				finished();
+				future.completeExceptionally(e);
+				return;
+			}
+			// a new run can be started as soon as the future completes
+			finished();
+			future.complete(result);
+		}, "MicroFPGA timeline");
+		t.setDaemon(true);
+		t.setPriority(Thread.MAX_PRIORITY);
+		thread_ = t;
+		t.start();
+
+		return future;
+	}
+
+	/**
+	 * Plays a timeline and waits for its end.
+	 *
+	 * @param timeline Compiled timeline.
+	 * @return Report of the playback.
+	 */
+	public TimelineReport play(CompiledTimeline timeline) {
+		return start(timeline).join();
+	}
+
+	/**
+	 * Stops the playback, the remaining actions are not sent.
+	 */
+	public synchronized void cancel() {
+		cancelled_ = true;
+		if(thread_ != null)
+			LockSupport.unpark(thread_);
+	}
+
+	public synchronized boolean isPlaying() {
+		return thread_ != null;
+	}
+
+	private synchronized void finished() {
+		thread_ = null;
+	}
+
+	private TimelineReport run(CompiledTimeline timeline) {
+		long[] errors = new long[timeline.size()];
+		long[] issueErrors = new long[timeline.size()];
+		boolean[] sent = new boolean[timeline.size()];
+
+		long t0 = System.nanoTime();
+		for(int g=0; g<timeline.getNumberGroups() && !cancelled_; g++) {
+			long target = t0 + timeline.getGroupOffset(g);
+
+			// park until close to the target, then spin
+			long remaining;
+			while((remaining = target - System.nanoTime()) > 0 && !cancelled_) {
+				long spin = spinNanos_;
+				if(remaining > spin)
+					LockSupport.parkNanos(this, remaining - spin);
+			}
+			if(cancelled_)
+				break;
+
+			long issued = System.nanoTime();
+			byte[] frames = timeline.getGroupFrames(g);
+			boolean b = regint_.writeFrames(frames, frames.length, Priority.URGENT);
+			long done = System.nanoTime();
+
+			for(int i=timeline.getGroupStart(g); i<timeline.getGroupStart(g+1); i++) {
+				errors[i] = done - target;
+				issueErrors[i] = issued - target;
+				sent[i] = b;
+			}
+		}
+
+		return new TimelineReport(timeline, errors, issueErrors, sent, cancelled_);
+	}
+}
@@ -0,0 +1,102 @@
+package de.embl.rieslab.microfpga.timeline;
+
+/**
+ * Outcome of the playback of a timeline: for each action, whether it was sent and
+ * the difference between the time its write returned and its scheduled time. The
+ * time at which the write was issued is also kept, the difference between both
+ * being the time spent queuing and on the serial link.
+ */
+public class TimelineReport {
+
+	private final CompiledTimeline timeline_;
+	private final long[] errors_;
+	private final long[] issueErrors_;
+	private final boolean[] sent_;
+	private final boolean cancelled_;
+
+	protected TimelineReport(CompiledTimeline timeline, long[] errors, long[] issueErrors, boolean[] sent,
+			boolean cancelled) {
+		timeline_ = timeline;
+		errors_ = errors;
+		issueErrors_ = issueErrors;
+		sent_ = sent;
+		cancelled_ = cancelled;
+	}
+
+	public CompiledTimeline getTimeline() {
+		return timeline_;
+	}
+
+	/**
+	 * @param action Index of the action, in time order.
+	 * @return Time at which the write of the action returned minus its scheduled
+	 * time, in ns.
+	 */
+	public long getErrorNanos(int action) {
+		return errors_[action];
+	}
+
+	/**
+	 * @param action Index of the action, in time order.
+	 * @return Time at which the write of the action was issued minus its scheduled
+	 * time, in ns.
+	 */
+	public long getIssueErrorNanos(int action) {
+		return issueErrors_[action];
+	}
+
+	/**
+	 * @param action Index of the action, in time order.
+	 * @return True if the action was successfully sent.
+	 */
+	public boolean isSent(int action) {
+		return sent_[action];
+	}
+
+	public boolean isCancelled() {
+		return cancelled_;
+	}
+
+	public int getNumberSent() {
+		int n = 0;
+		for(boolean b: sent_) {
+			if(b) n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return Largest absolute timing error of the sent actions, in ns.
+	 */
+	public long getMaxErrorNanos() {
+		long max = 0;
+		for(int i=0; i<errors_.length; i++) {
+			if(sent_[i])
+				max = Math.max(max, Math.abs(errors_[i]));
+		}
+		return max;
+	}
+
+	/**
+	 * @return Mean timing error of the sent actions, in ns.
+	 */
+	public double getMeanErrorNanos() {
+		long sum = 0;
+		int n = 0;
+		for(int i=0; i<errors_.length; i++) {
+			if(sent_[i]) {
+				sum += errors_[i];
+				n++;
+			}
+		}
+		return n == 0 ? 0 : sum / (double) n;
+	}
+
+	@Override
+	public String toString() {
+		return "[Sent: "+getNumberSent()+"/"+errors_.length
+				+", mean error: "+getMeanErrorNanos()/1000.+" us"
+				+", max error: "+getMaxErrorNanos()/1000.+" us"
+				+(cancelled_ ? ", cancelled" : "")+"]";
+	}
+}
@@ -0,0 +1,146 @@
+package de.embl.rieslab.microfpga.waveform;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Outputs of the FPGA over a number of camera frames, as rendered by the
+ * {@link WaveformRenderer}. Each channel is stored as a compressed list of edges:
+ * pairs of rising and falling times in us, sorted and disjoint, all signals being
+ * low at time 0.
+ *
+ * Channel {@link #FIRE} is the camera trigger, {@link #EXPOSURE} the internal
+ * exposure signal, and laser i is channel {@link #LASER} + i.
+ */
+public class Waveform {
+
+	public static final int FIRE = 0;
+	public static final int EXPOSURE = 1;
+	public static final int LASER = 2;
+
+	private final int nFrames_;
+	private final long periodMicros_;
+	private final long[][] edges_;
+
+	protected Waveform(int nFrames, long periodMicros, long[][] edges) {
+		nFrames_ = nFrames;
+		periodMicros_ = periodMicros;
+		edges_ = edges;
+	}
+
+	public int getNumberFrames() {
+		return nFrames_;
+	}
+
+	/**
+	 * @return Camera frame period (delay + exposure + readout), in us.
+	 */
+	public long getPeriodMicros() {
+		return periodMicros_;
+	}
+
+	/**
+	 * @return Duration of the rendered frames, in us.
+	 */
+	public long getDurationMicros() {
+		return nFrames_ * periodMicros_;
+	}
+
+	public int getNumberChannels() {
+		return edges_.length;
+	}
+
+	public int getNumberLasers() {
+		return edges_.length - LASER;
+	}
+
+	/**
+	 * @param channel Channel index.
+	 * @return Rising and falling times in us, alternating, starting with a rising edge.
+	 */
+	public long[] getEdges(int channel) {
+		return Arrays.copyOf(edges_[channel], edges_[channel].length);
+	}
+
+	/**
+	 * @param channel Channel index.
+	 * @return Number of pulses of the channel.
+	 */
+	public int getNumberPulses(int channel) {
+		return edges_[channel].length / 2;
+	}
+
+	/**
+	 * @param channel Channel index.
+	 * @param time Time in us.
+	 * @return True if the channel is high at this time.
+	 */
+	public boolean isHigh(int channel, long time) {
+		// index of the first edge strictly after time
+		int i = Arrays.binarySearch(edges_[channel], time);
+		i = i >= 0 ? i + 1 : -i - 1;
+		return i % 2 == 1;
+	}
+
+	/**
+	 * Expands a channel into one bit per us.
+	 *
+	 * @param channel Channel index.
+	 * @return Bits, bit t being set if the channel is high during the us starting at t.
+	 * @throws IllegalStateException If the waveform is longer than Integer.MAX_VALUE us.
+	 */
+	public BitSet getBits(int channel) {
+		if(getDurationMicros() > Integer.MAX_VALUE)
+			throw new IllegalStateException("Waveform too long to be expanded.");
+
+		long[] e = edges_[channel];
+		BitSet bits = new BitSet((int) getDurationMicros());
+		for(int i=0; i<e.length; i+=2) {
+			bits.set((int) e[i], (int) e[i+1]);
+		}
+		return bits;
+	}
+
+	/**
+	 * @param channel Channel index.
+	 * @return Total time during which the channel is high, in us.
+	 */
+	public long getHighMicros(int channel) {
+		long[] e = edges_[channel];
+		long sum = 0;
+		for(int i=0; i<e.length; i+=2) {
+			sum += e[i+1] - e[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * @return Total time during which both channels are high, in us.
+	 */
+	public long getOverlapMicros(int channel1, int channel2) {
+		return overlap(edges_[channel1], edges_[channel2]);
+	}
+
+	public WaveformMetrics getMetrics() {
+		return new WaveformMetrics(this);
+	}
+
+	static long overlap(long[] a, long[] b) {
+		long sum = 0;
+		int i = 0, j = 0;
+		while(i < a.length && j < b.length) {
+			long start = Math.max(a[i], b[j]);
+			long end = Math.min(a[i+1], b[j+1]);
+			if(end > start)
+				sum += end - start;
+
+			// moves on from the interval ending first
+			if(a[i+1] < b[j+1]) {
+				i += 2;
+			} else {
+				j += 2;
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,95 @@
+package de.embl.rieslab.microfpga.waveform;
+
+/**
+ * Quantities derived from a {@link Waveform}: frame rate, duty cycles and
+ * illumination conflicts, i.e. lasers on while the camera is not exposing or
+ * several lasers on at the same time.
+ */
+public class WaveformMetrics {
+
+	private final long periodMicros_;
+	private final double[] dutyCycles_;
+	private final long[] outsideExposure_;
+	private final long laserOverlap_;
+
+	protected WaveformMetrics(Waveform waveform) {
+		periodMicros_ = waveform.getPeriodMicros();
+
+		long duration = waveform.getDurationMicros();
+		dutyCycles_ = new double[waveform.getNumberChannels()];
+		for(int c=0; c<dutyCycles_.length; c++) {
+			dutyCycles_[c] = duration == 0 ? 0 : waveform.getHighMicros(c) / (double) duration;
+		}
+
+		int nLasers = waveform.getNumberLasers();
+		outsideExposure_ = new long[nLasers];
+		long overlap = 0;
+		for(int i=0; i<nLasers; i++) {
+			int c = Waveform.LASER + i;
+			outsideExposure_[i] = waveform.getHighMicros(c) - waveform.getOverlapMicros(c, Waveform.EXPOSURE);
+			for(int j=i+1; j<nLasers; j++) {
+				overlap += waveform.getOverlapMicros(c, Waveform.LASER + j);
+			}
+		}
+		laserOverlap_ = overlap;
+	}
+
+	public long getPeriodMicros() {
+		return periodMicros_;
+	}
+
+	public double getFrameRateHz() {
+		return periodMicros_ == 0 ? 0 : 1e6 / periodMicros_;
+	}
+
+	/**
+	 * @param channel Channel index, see {@link Waveform}.
+	 * @return Fraction of the time during which the channel is high.
+	 */
+	public double getDutyCycle(int channel) {
+		return dutyCycles_[channel];
+	}
+
+	/**
+	 * @param laser Laser index.
+	 * @return Time during which the laser is on while the camera is not exposing, in us.
+	 */
+	public long getOutsideExposureMicros(int laser) {
+		return outsideExposure_[laser];
+	}
+
+	/**
+	 * @return Time during which lasers are on simultaneously, summed over all pairs
+	 * of lasers, in us.
+	 */
+	public long getLaserOverlapMicros() {
+		return laserOverlap_;
+	}
+
+	/**
+	 * @return True if a laser is on outside of the exposure or lasers overlap.
+	 */
+	public boolean hasConflicts() {
+		if(laserOverlap_ > 0)
+			return true;
+		for(long l: outsideExposure_) {
+			if(l > 0)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("[Frame rate: ").append(getFrameRateHz()).append(" Hz")
+				.append(", exposure duty cycle: ").append(getDutyCycle(Waveform.EXPOSURE));
+		for(int i=0; i<outsideExposure_.length; i++) {
+			sb.append(", laser ").append(i).append(": ")
+					.append(getDutyCycle(Waveform.LASER + i)).append(" duty cycle, ")
+					.append(outsideExposure_[i]).append(" us outside exposure");
+		}
+		sb.append(", laser overlap: ").append(laserOverlap_).append(" us]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,212 @@
+package de.embl.rieslab.microfpga.waveform;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.embl.rieslab.microfpga.devices.CameraParameters;
+import de.embl.rieslab.microfpga.devices.LaserParameters;
+import de.embl.rieslab.microfpga.devices.LaserTriggerMode;
+
+/**
+ * Renders offline the outputs of the FPGA in active camera sync mode, in steps of
+ * 1 us. Frame i starts at i * period, where the period is delay + exposure +
+ * readout. The fire signal is then high for the pulse length, and the exposure
+ * signal rises after the delay and stays high for the exposure time.
+ *
+ * Each laser is enabled in frame i if bit (i mod 16) of its sequence is set, the
+ * most significant bit corresponding to the first frame. Enabled lasers are high
+ * during the exposure (FOLLOWING), or for their duration from the rising (RISING)
+ * or falling (FALLING) edge of the exposure. ON lasers are always high and OFF
+ * lasers always low.
+ *
+ * Rendering only computes edges and is cheap enough to sweep many candidate
+ * settings in parallel, see {@link #sweep(CameraParameters[], LaserParameters[][], int)}.
+ */
+public class WaveformRenderer {
+
+	public static final int SEQUENCE_LENGTH = 16;
+
+	/**
+	 * Renders the outputs over a number of frames.
+	 *
+	 * @param camera Camera trigger parameters.
+	 * @param lasers Laser parameters, the index corresponding to the laser id.
+	 * @param nFrames Number of frames.
+	 * @return Waveform.
+	 */
+	public static Waveform render(CameraParameters camera, LaserParameters[] lasers, int nFrames) {
+		long pulse = toMicros(camera.getPulseMs());
+		long delay = toMicros(camera.getDelayMs());
+		long exposure = toMicros(camera.getExposureMs());
+		long readout = toMicros(camera.getReadoutMs());
+		long period = delay + exposure + readout;
+		long end = nFrames * period;
+
+		long[][] edges = new long[Waveform.LASER + lasers.length][];
+
+		Edges fire = new Edges(nFrames, end);
+		Edges expo = new Edges(nFrames, end);
+		for(int i=0; i<nFrames; i++) {
+			long t = i * period;
+			fire.add(t, t + pulse);
+			expo.add(t + delay, t + delay + exposure);
+		}
+		edges[Waveform.FIRE] = fire.toArray();
+		edges[Waveform.EXPOSURE] = expo.toArray();
+
+		for(int l=0; l<lasers.length; l++) {
+			edges[Waveform.LASER + l] = renderLaser(lasers[l], nFrames, period, delay, exposure, end);
+		}
+
+		return new Waveform(nFrames, period, edges);
+	}
+
+	/**
+	 * Renders the outputs and computes the derived metrics.
+	 *
+	 * @see #render(CameraParameters, LaserParameters[], int)
+	 */
+	public static WaveformMetrics measure(CameraParameters camera, LaserParameters[] lasers, int nFrames) {
+		return render(camera, lasers, nFrames).getMetrics();
+	}
+
+	/**
+	 * Computes the metrics of many candidate settings in parallel in the common
+	 * fork-join pool.
+	 *
+	 * @param cameras Camera parameters of each candidate.
+	 * @param lasers Laser parameters of each candidate.
+	 * @param nFrames Number of frames rendered for each candidate.
+	 * @return Metrics, in the order of the candidates.
+	 * @throws IllegalArgumentException If the arrays have different lengths.
+	 */
+	public static WaveformMetrics[] sweep(CameraParameters[] cameras, LaserParameters[][] lasers, int nFrames) {
+		return sweep(cameras, lasers, nFrames, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Computes the metrics of many candidate settings in parallel.
+	 *
+	 * @param pool Pool running the computation.
+	 * @see #sweep(CameraParameters[], LaserParameters[][], int)
+	 */
+	public static WaveformMetrics[] sweep(CameraParameters[] cameras, LaserParameters[][] lasers, int nFrames,
+										  ForkJoinPool pool) {
+		if(cameras.length != lasers.length)
+			throw new IllegalArgumentException("As many camera as laser parameters expected.");
+
+		WaveformMetrics[] results = new WaveformMetrics[cameras.length];
+		pool.invoke(new Sweep(cameras, lasers, nFrames, results, 0, cameras.length));
+		return results;
+	}
+
+	private static long[] renderLaser(LaserParameters p, int nFrames, long period, long delay,
+									  long exposure, long end) {
+		LaserTriggerMode mode = p.getMode();
+		Edges e = new Edges(mode == LaserTriggerMode.ON ? 1 : nFrames, end);
+		if(mode == LaserTriggerMode.ON) {
+			e.add(0, end);
+			return e.toArray();
+		} else if(mode == null || mode == LaserTriggerMode.OFF) {
+			return e.toArray();
+		}
+
+		int sequence = p.getSequence();
+		long duration = p.getDuration();
+		for(int i=0; i<nFrames; i++) {
+			if((sequence & (1 << (SEQUENCE_LENGTH - 1 - i % SEQUENCE_LENGTH))) == 0)
+				continue;
+
+			long rising = i * period + delay;
+			switch (mode) {
+				case RISING:
+					e.add(rising, rising + duration);
+					break;
+				case FALLING:
+					e.add(rising + exposure, rising + exposure + duration);
+					break;
+				case FOLLOWING:
+					e.add(rising, rising + exposure);
+					break;
+				default:
+					break;
+			}
+		}
+		return e.toArray();
+	}
+
+	private static long toMicros(double ms) {
+		return Math.round(ms * 1000);
+	}
+
+	/**
+	 * Accumulates pulses in increasing start time, merging overlapping pulses and
+	 * clipping them to the end of the waveform.
+	 */
+	private static final class Edges {
+		private final long end_;
+		private long[] edges_;
+		private int size_;
+
+		Edges(int capacity, long end) {
+			end_ = end;
+			edges_ = new long[2 * Math.max(1, capacity)];
+		}
+
+		void add(long start, long stop) {
+			stop = Math.min(stop, end_);
+			if(stop <= start)
+				return;
+
+			if(size_ > 0 && start <= edges_[size_-1]) {
+				edges_[size_-1] = Math.max(edges_[size_-1], stop);
+				return;
+			}
+
+			if(size_ == edges_.length)
+				edges_ = Arrays.copyOf(edges_, 2 * size_);
+			edges_[size_++] = start;
+			edges_[size_++] = stop;
+		}
+
+		long[] toArray() {
+			return size_ == edges_.length ? edges_ : Arrays.copyOf(edges_, size_);
+		}
+	}
+
+	private static final class Sweep extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 16;
+
+		private final CameraParameters[] cameras_;
+		private final LaserParameters[][] lasers_;
+		private final int nFrames_;
+		private final WaveformMetrics[] results_;
+		private final int from_;
+		private final int to_;
+
+		Sweep(CameraParameters[] cameras, LaserParameters[][] lasers, int nFrames,
+			  WaveformMetrics[] results, int from, int to) {
+			cameras_ = cameras;
+			lasers_ = lasers;
+			nFrames_ = nFrames;
+			results_ = results;
+			from_ = from;
+			to_ = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to_ - from_ <= THRESHOLD) {
+				for(int i=from_; i<to_; i++) {
+					results_[i] = measure(cameras_[i], lasers_[i], nFrames_);
+				}
+			} else {
+				int mid = (from_ + to_) >>> 1;
+				invokeAll(new Sweep(cameras_, lasers_, nFrames_, results_, from_, mid),
+						new Sweep(cameras_, lasers_, nFrames_, results_, mid, to_));
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package de.embl.rieslab.microfpga;
+
+import de.embl.rieslab.microfpga.devices.CameraParameters;
+import de.embl.rieslab.microfpga.devices.LaserParameters;
+import de.embl.rieslab.microfpga.devices.LaserTriggerMode;
+import de.embl.rieslab.microfpga.devices.Signal;
+import de.embl.rieslab.microfpga.regint.ConcurrentRegisterInterface;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SimulatedTransport;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class ConnectionWatchdogTest {
+
+    @Test
+    public void testReconnectAndReplay() throws Exception {
+        SimulatedTransport board = new SimulatedTransport();
+        MicroFPGAController controller = new MicroFPGAController(new ConcurrentRegisterInterface(board),
+                2, 2, 1, 0, 0, true);
+
+        LaserParameters laser = new LaserParameters(LaserTriggerMode.RISING, 2000, "1010101010101010");
+        assertTrue(controller.setLaserParameters(new LaserParameters[]{laser, laser}));
+        assertTrue(controller.setTTLState(1, true));
+        assertTrue(controller.setServoState(0, 1234));
+        assertTrue(controller.setCameraTriggerParameters(new CameraParameters(1., 0.5, 30., 1.)));
+        assertTrue(controller.startCamera());
+
+        ConnectionWatchdog watchdog = controller.startWatchdog(20);
+        assertNotNull(watchdog);
+        Set<Thread> ioThreads = getIOThreads();
+        assertFalse(ioThreads.isEmpty());
+
+        // the board loses its state when unplugged
+        board.setPlugged(false);
+        assertTrue(waitFor(() -> !controller.isConnected()));
+        assertFalse(watchdog.isLinkUp());
+        assertFalse(controller.setTTLState(0, true));
+
+        board.setPlugged(true);
+        assertTrue(waitFor(controller::isConnected));
+        assertEquals(1, watchdog.getReconnectCount());
+        assertTrue(watchdog.getLastReplayCount() > 0);
+
+        // the link was reopened by the I/O thread, which kept running
+        assertEquals(ioThreads, getIOThreads());
+
+        assertEquals(LaserTriggerMode.RISING.getValue(), board.peek(Signal.ADDR_MODE + 1));
+        assertEquals(2000, board.peek(Signal.ADDR_DURA + 1));
+        assertEquals(1, board.peek(Signal.ADDR_TTL + 1));
+        assertEquals(1234, board.peek(Signal.ADDR_SERVO));
+        assertEquals(30000, board.peek(Signal.ADDR_CAM_EXPO));
+
+        // the camera is not restarted by default
+        assertEquals(0, board.peek(Signal.ADDR_START_TRIGGER));
+
+        controller.disconnect();
+        assertNull(controller.getWatchdog());
+        assertFalse(watchdog.isRunning());
+    }
+
+    @Test
+    public void testRequiresConcurrentInterface() throws Exception {
+        SimulatedTransport board = new SimulatedTransport();
+        MicroFPGAController controller = new MicroFPGAController(new RegisterInterface(board),
+                1, 1, 0, 0, 0, false);
+
+        // heartbeats would interleave with the caller's requests
+        assertFalse(controller.isThreadSafe());
+        assertNull(controller.startWatchdog(20));
+        controller.disconnect();
+
+        MicroFPGAConnector connector = new MicroFPGAConnector(() -> Arrays.asList("au"),
+                name -> new SimulatedTransport(Signal.ID_AU));
+        connector.setConcurrent(true);
+        controller = connector.connect(1, 1, 0, 0, 0, false);
+        assertTrue(controller.isThreadSafe());
+        assertNotNull(controller.startWatchdog(20));
+        controller.disconnect();
+    }
+
+    private static Set<Thread> getIOThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for(Thread t: Thread.getAllStackTraces().keySet()) {
+            if(t.getName().equals("MicroFPGA register interface"))
+                threads.add(t);
+        }
+        return threads;
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long t0 = System.nanoTime();
+        while(!condition.getAsBoolean()) {
+            if(System.nanoTime() - t0 > 5000000000L)
+                return false;
+            Thread.sleep(1);
+        }
+        return true;
+    }
+}
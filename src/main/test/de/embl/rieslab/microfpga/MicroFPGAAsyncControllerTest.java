@@ -0,0 +1,88 @@
+package de.embl.rieslab.microfpga;
+
+import de.embl.rieslab.microfpga.devices.Signal;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SimulatedTransport;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+public class MicroFPGAAsyncControllerTest {
+
+    @Test
+    public void testOrderAndResults() throws Exception {
+        SimulatedTransport board = new SimulatedTransport();
+        MicroFPGAAsyncController async = new MicroFPGAAsyncController(
+                new MicroFPGAController(new RegisterInterface(board), 2, 2, 2, 2, 2, true));
+
+        // operations run in submission order on a single thread
+        final List<Integer> order = new ArrayList<>();
+        List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+        for(int i=0; i<50; i++){
+            final int value = i;
+            writes.add(async.submit(c -> {
+                order.add(value);
+                return c.setServoState(0, value);
+            }));
+        }
+        CompletableFuture<Integer> read = async.getServoState(0);
+
+        for(CompletableFuture<Boolean> f: writes){
+            assertTrue(f.get());
+        }
+        assertEquals(49, (int) read.get());
+        for(int i=0; i<50; i++){
+            assertEquals(i, (int) order.get(i));
+        }
+
+        // results and failures are propagated
+        assertFalse(async.setServoState(0, -1).get());
+        assertTrue(async.setTTLState(1, true).get());
+        assertTrue(async.getTTLState(1).get());
+        try {
+            async.submit(c -> {
+                throw new IllegalStateException("failed");
+            }).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        async.disconnect().get();
+        assertFalse(board.isOpen());
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        SimulatedTransport board = new SimulatedTransport();
+        MicroFPGAAsyncController async = new MicroFPGAAsyncController(
+                new MicroFPGAController(new RegisterInterface(board), 2, 2, 2, 2, 2, true));
+
+        // queued operations are still executed before disconnecting
+        CompletableFuture<Boolean> write = async.setPWMState(0, 100);
+        CompletableFuture<Void> disconnected = async.disconnect();
+        assertTrue(async.isShutdown());
+        assertTrue(write.get());
+        disconnected.get();
+        assertEquals(100, board.peek(Signal.ADDR_PWM));
+        assertFalse(board.isOpen());
+
+        // later submissions fail instead of throwing
+        CompletableFuture<Boolean> late = async.setPWMState(0, 10);
+        assertTrue(late.isCompletedExceptionally());
+        try {
+            late.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertTrue(async.disconnect().isCompletedExceptionally());
+        async.close();
+    }
+}
@@ -0,0 +1,55 @@
+package de.embl.rieslab.microfpga;
+
+import de.embl.rieslab.microfpga.devices.CameraParameters;
+import de.embl.rieslab.microfpga.devices.Signal;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SimulatedTransport;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MicroFPGABoardManagerTest {
+
+    @Test
+    public void testIndependentBoards() throws Exception {
+        SimulatedTransport board1 = new SimulatedTransport(Signal.ID_AU);
+        SimulatedTransport board2 = new SimulatedTransport(Signal.ID_CU);
+
+        try (MicroFPGABoardManager manager = new MicroFPGABoardManager()) {
+            manager.connect("board1", new RegisterInterface(board1), 2, 1, 0, 0, 0, true);
+            manager.connect("board2", new RegisterInterface(board2), 2, 1, 0, 0, 0, true);
+            assertEquals(2, manager.getNumberBoards());
+
+            try {
+                manager.connect("board1", new RegisterInterface(new SimulatedTransport()), 1, 0, 0, 0, 0, false);
+                fail();
+            } catch (Exception e) {
+                // expected
+            }
+
+            // each board has its own camera sync
+            manager.getBoard("board1").setCameraTriggerParameters(new CameraParameters(1., 0., 10., 1.)).join();
+            manager.getBoard("board2").setCameraTriggerParameters(new CameraParameters(2., 0., 20., 1.)).join();
+            assertEquals(10000, board1.peek(Signal.ADDR_CAM_EXPO));
+            assertEquals(20000, board2.peek(Signal.ADDR_CAM_EXPO));
+
+            // fan out a change to all boards
+            Map<String, Boolean> results = manager.applyAll(c -> c.setTTLState(0, true));
+            assertEquals(2, results.size());
+            assertTrue(results.get("board1"));
+            assertTrue(results.get("board2"));
+            assertEquals(1, board1.peek(Signal.ADDR_TTL));
+            assertEquals(1, board2.peek(Signal.ADDR_TTL));
+
+            assertEquals("Cu", manager.applyAll(MicroFPGAController::getID).get("board2"));
+
+            manager.disconnect("board2");
+            assertFalse(board2.isOpen());
+            assertEquals(1, manager.getNumberBoards());
+        }
+
+        assertFalse(board1.isOpen());
+    }
+}
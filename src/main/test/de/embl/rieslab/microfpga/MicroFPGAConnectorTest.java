@@ -0,0 +1,64 @@
+package de.embl.rieslab.microfpga;
+
+import de.embl.rieslab.microfpga.devices.Signal;
+import de.embl.rieslab.microfpga.regint.SimulatedTransport;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MicroFPGAConnectorTest {
+
+    @Test
+    public void testProbeAndReconnect() throws Exception {
+        Map<String, SimulatedTransport> boards = new HashMap<>();
+        boards.put("other", new SimulatedTransport(0));
+        boards.put("au", new SimulatedTransport(Signal.ID_AU));
+
+        MicroFPGAConnector connector = new MicroFPGAConnector(() -> Arrays.asList("other", "au", "missing"),
+                name -> boards.getOrDefault(name, new SimulatedTransport(Signal.ERROR_UNKNOWN_COMMAND)));
+
+        // the unsupported device is rejected by the handshake
+        MicroFPGAController controller = connector.connect(1, 1, 0, 0, 0, false);
+        assertTrue(controller.isConnected());
+        assertEquals("au", connector.getPortName());
+
+        // the losing probe closes its port in the background
+        long t0 = System.nanoTime();
+        while(boards.get("other").isOpen() && System.nanoTime() - t0 < 1000000000L){
+            Thread.sleep(1);
+        }
+        assertFalse(boards.get("other").isOpen());
+
+        ConnectionReport report = connector.getLastReport();
+        assertTrue(report.isConnected());
+        assertFalse(report.isDirect());
+        assertEquals(3, report.getNumberProbed());
+
+        controller.disconnect();
+
+        // the remembered port is opened directly
+        controller = connector.connect(1, 1, 0, 0, 0, false);
+        assertTrue(controller.setTTLState(0, true));
+        assertEquals(1, boards.get("au").peek(Signal.ADDR_TTL));
+
+        report = connector.getLastReport();
+        assertTrue(report.isDirect());
+        assertEquals(1, report.getNumberProbed());
+        assertEquals(0, report.getLookupNanos());
+
+        controller.disconnect();
+
+        // no supported board
+        connector = new MicroFPGAConnector(() -> Arrays.asList("other"), boards::get);
+        try {
+            connector.connect(1, 1, 0, 0, 0, false);
+            fail();
+        } catch (Exception e) {
+            assertFalse(connector.getLastReport().isConnected());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package de.embl.rieslab.microfpga;
+
+import de.embl.rieslab.microfpga.devices.CameraParameters;
+import de.embl.rieslab.microfpga.devices.LaserParameters;
+import de.embl.rieslab.microfpga.devices.LaserTriggerMode;
+import de.embl.rieslab.microfpga.devices.Signal;
+import de.embl.rieslab.microfpga.regint.ConcurrentRegisterInterface;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SimulatedTransport;
+import de.embl.rieslab.microfpga.regint.Transport;
+import de.embl.rieslab.microfpga.regint.VerificationReport;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MicroFPGAControllerTest {
+
+    @Test
+    public void testVerifyMode() throws Exception {
+        SimulatedTransport board = new SimulatedTransport();
+        LossyTransport link = new LossyTransport(board);
+        MicroFPGAController controller = new MicroFPGAController(new RegisterInterface(link),
+                2, 2, 0, 0, 0, true);
+        controller.setVerifyEnabled(true);
+
+        LaserParameters p = new LaserParameters(LaserTriggerMode.RISING, 2000, "1010101010101010");
+        assertTrue(controller.setLaserParameters(1, p));
+        VerificationReport report = controller.getLastVerification();
+        assertTrue(report.isVerified());
+        assertEquals(3, report.getNumberRegisters());
+        assertEquals(2000, report.getActual(Signal.ADDR_DURA + 1));
+
+        assertTrue(controller.setCameraTriggerParameters(new CameraParameters(1., 0.5, 30., 1.)));
+        assertEquals(4, controller.getLastVerification().getNumberRegisters());
+
+        // writes reported as sent but lost on the way
+        link.drop_ = true;
+        assertFalse(controller.setTTLState(1, true));
+        report = controller.getLastVerification();
+        assertTrue(report.isRead());
+        assertArrayEquals(new int[]{Signal.ADDR_TTL + 1}, report.getMismatchAddresses());
+        assertEquals(1, report.getExpected(Signal.ADDR_TTL + 1));
+        assertEquals(0, report.getActual(Signal.ADDR_TTL + 1));
+
+        assertFalse(controller.setLaserParameters(new LaserParameters[]{p,
+                new LaserParameters(LaserTriggerMode.FOLLOWING, 0, "1111111111111111")}));
+        assertArrayEquals(new int[]{Signal.ADDR_MODE, Signal.ADDR_MODE + 1, Signal.ADDR_DURA,
+                        Signal.ADDR_DURA + 1, Signal.ADDR_SEQ, Signal.ADDR_SEQ + 1},
+                controller.getLastVerification().getMismatchAddresses());
+
+        // without verification, lost writes go unnoticed
+        controller.setVerifyEnabled(false);
+        assertTrue(controller.setTTLState(0, true));
+
+        controller.disconnect();
+    }
+
+    @Test
+    public void testBackgroundFeaturesRequireConcurrentInterface() throws Exception {
+        MicroFPGAController controller = new MicroFPGAController(
+                new RegisterInterface(new SimulatedTransport()), 1, 1, 0, 0, 2, false);
+        assertNull(controller.createAnalogInputSampler(100, 16));
+        assertNull(controller.createTimelinePlayer());
+        assertNull(controller.createSequenceStreamer());
+        controller.disconnect();
+
+        controller = new MicroFPGAController(
+                new ConcurrentRegisterInterface(new SimulatedTransport()), 1, 1, 0, 0, 2, false);
+        assertNotNull(controller.createAnalogInputSampler(100, 16));
+        assertNotNull(controller.createTimelinePlayer());
+        assertNotNull(controller.createSequenceStreamer());
+        controller.disconnect();
+    }
+
+    /**
+     * Transport whose writes can be silently dropped.
+     */
+    private static class LossyTransport implements Transport {
+        private final Transport transport_;
+        private volatile boolean drop_;
+
+        LossyTransport(Transport transport) {
+            transport_ = transport;
+        }
+
+        @Override
+        public boolean open() {
+            return transport_.open();
+        }
+
+        @Override
+        public boolean close() {
+            return transport_.close();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return transport_.isOpen();
+        }
+
+        @Override
+        public int write(byte[] buffer, int length) {
+            // read requests always go through
+            if(drop_ && (buffer[0] & 0x80) != 0)
+                return length;
+            return transport_.write(buffer, length);
+        }
+
+        @Override
+        public int read(byte[] buffer, int length) {
+            return transport_.read(buffer, length);
+        }
+    }
+}
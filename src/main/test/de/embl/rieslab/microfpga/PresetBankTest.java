@@ -0,0 +1,139 @@
+package de.embl.rieslab.microfpga;
+
+import de.embl.rieslab.microfpga.devices.CameraParameters;
+import de.embl.rieslab.microfpga.devices.PWM;
+import de.embl.rieslab.microfpga.devices.Signal;
+import de.embl.rieslab.microfpga.regint.ConcurrentRegisterInterface;
+import de.embl.rieslab.microfpga.regint.Priority;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SimulatedTransport;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class PresetBankTest {
+
+    @Test
+    public void testConcurrentSwitch() throws Exception {
+        SimulatedTransport board = new SimulatedTransport();
+        ConcurrentRegisterInterface regint = new ConcurrentRegisterInterface(board);
+        MicroFPGAController controller = new MicroFPGAController(regint, 2, 2, 1, 1, 0, true);
+        PresetBank bank = controller.getPresetBank();
+
+        assertTrue(controller.setServoState(0, 100));
+        Preset a = bank.capture("a");
+        Preset b = a.withValue(Signal.ADDR_SERVO, 200).withValue(Signal.ADDR_TTL, 1);
+
+        // comparison and write form a single command of the I/O thread
+        long commands = regint.getMetrics().snapshot().getQueueWaitCount(Priority.NORMAL);
+        assertEquals(2 * RegisterInterface.WRITE_FRAME_LENGTH, bank.apply("b", b).getBytesSent());
+        assertEquals(commands + 1, regint.getMetrics().snapshot().getQueueWaitCount(Priority.NORMAL));
+        assertEquals(200, board.peek(Signal.ADDR_SERVO));
+
+        // a write made in between is taken into account by the next switch
+        assertTrue(controller.setServoState(0, 300));
+        assertEquals(2 * RegisterInterface.WRITE_FRAME_LENGTH, bank.apply("a", a).getBytesSent());
+        assertEquals(100, board.peek(Signal.ADDR_SERVO));
+        assertEquals(0, board.peek(Signal.ADDR_TTL));
+
+        controller.disconnect();
+    }
+
+    @Test
+    public void testSwitch() throws Exception {
+        SimulatedTransport board = new SimulatedTransport();
+        MicroFPGAController controller = new MicroFPGAController(new RegisterInterface(board),
+                2, 2, 1, 1, 0, true);
+        PresetBank bank = controller.getPresetBank();
+
+        assertTrue(controller.setTTLState(0, true));
+        assertTrue(controller.setCameraTriggerParameters(new CameraParameters(1., 0.5, 30., 1.)));
+        assertNotNull(bank.capture("widefield"));
+
+        assertTrue(controller.setTTLState(0, false));
+        assertTrue(controller.setServoState(0, 1000));
+        assertTrue(controller.setCameraTriggerParameters(new CameraParameters(1., 0.5, 10., 1.)));
+        assertNotNull(bank.capture("fast"));
+        assertEquals(Arrays.asList("widefield", "fast"), bank.getNames());
+
+        assertTrue(controller.startCamera());
+
+        // only the TTL, the servo and the exposure differ
+        PresetSwitchReport report = bank.apply("widefield");
+        assertTrue(report.isSuccess());
+        assertEquals(3, report.getNumberFrames());
+        assertEquals(3 * RegisterInterface.WRITE_FRAME_LENGTH, report.getBytesSent());
+        assertEquals(1, board.peek(Signal.ADDR_TTL));
+        assertEquals(0, board.peek(Signal.ADDR_SERVO));
+        assertEquals(30000, board.peek(Signal.ADDR_CAM_EXPO));
+
+        // the camera keeps running
+        assertEquals(1, board.peek(Signal.ADDR_START_TRIGGER));
+
+        // nothing to send when already applied
+        report = bank.apply("widefield");
+        assertTrue(report.isSuccess());
+        assertEquals(0, report.getBytesSent());
+
+        // edited presets
+        bank.put("dark", bank.get("widefield").withValue(Signal.ADDR_TTL, 0));
+        assertEquals(RegisterInterface.WRITE_FRAME_LENGTH, bank.apply("dark").getBytesSent());
+        assertEquals(0, board.peek(Signal.ADDR_TTL));
+
+        assertNull(bank.apply("unknown"));
+        try {
+            bank.get("dark").withValue(Signal.ADDR_START_TRIGGER, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // values are checked against the range of each register
+        int[][] invalid = {{Signal.ADDR_TTL, 2}, {Signal.ADDR_PWM, PWM.MAX + 1}, {Signal.ADDR_MODE, -1}};
+        for(int[] a: invalid){
+            try {
+                bank.get("dark").withValue(a[0], a[1]);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        controller.disconnect();
+    }
+
+    @Test
+    public void testCaptureInvalidValues() throws Exception {
+        final AtomicBoolean unknown = new AtomicBoolean();
+        SimulatedTransport board = new SimulatedTransport() {
+            @Override
+            public synchronized int read(byte[] buffer, int length) {
+                int n = super.read(buffer, length);
+                if(unknown.get()) {
+                    // the board does not recognize the request
+                    for(int i=0; i+3<n; i+=4) {
+                        for(int j=0; j<4; j++) {
+                            buffer[i + j] = (byte) (Signal.ERROR_UNKNOWN_COMMAND >> (8 * j));
+                        }
+                    }
+                }
+                return n;
+            }
+        };
+        MicroFPGAController controller = new MicroFPGAController(new RegisterInterface(board),
+                2, 2, 1, 1, 0, true);
+        PresetBank bank = controller.getPresetBank();
+
+        unknown.set(true);
+        assertNull(bank.capture("unknown"));
+        assertNull(bank.get("unknown"));
+
+        unknown.set(false);
+        assertNotNull(bank.capture("known"));
+
+        controller.disconnect();
+    }
+}
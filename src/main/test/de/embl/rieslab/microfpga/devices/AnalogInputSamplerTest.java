@@ -0,0 +1,121 @@
+package de.embl.rieslab.microfpga.devices;
+
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SimulatedTransport;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AnalogInputSamplerTest {
+
+    @Test
+    public void testRingBuffer(){
+        SampleRingBuffer buffer = new SampleRingBuffer(6);
+        assertEquals(8, buffer.getCapacity());
+
+        long[] times = new long[20];
+        int[] channels = new int[20];
+        int[] values = new int[20];
+
+        for(int i=0; i<5; i++){
+            buffer.put(i, i % 2, 10 * i);
+        }
+        assertEquals(5, buffer.size());
+        assertEquals(5, buffer.drain(times, channels, values));
+        assertEquals(3, times[3]);
+        assertEquals(1, channels[3]);
+        assertEquals(30, values[3]);
+        assertEquals(0, buffer.drain(times, channels, values));
+
+        // the reader falls behind, the oldest samples are dropped
+        for(int i=5; i<25; i++){
+            buffer.put(i, 0, 10 * i);
+        }
+        int n = buffer.drain(times, channels, values);
+        assertEquals(buffer.getCapacity() - 1, n);
+        assertEquals(24, times[n - 1]);
+        assertEquals(240, values[n - 1]);
+        assertEquals(20 - n, buffer.getDroppedCount());
+
+        // partial drain
+        for(int i=0; i<4; i++){
+            buffer.put(i, 0, i);
+        }
+        assertEquals(2, buffer.drain(new long[2], new int[2], new int[2]));
+        assertEquals(2, buffer.drain(times, channels, values));
+        assertEquals(3, values[1]);
+    }
+
+    @Test
+    public void testConcurrentRingBuffer() throws InterruptedException {
+        final SampleRingBuffer buffer = new SampleRingBuffer(8);
+        final int total = 200000;
+
+        // the writer overruns the small buffer while the reader copies
+        Thread writer = new Thread(() -> {
+            for(int i=0; i<total; i++){
+                buffer.put(i, i, -i);
+            }
+        });
+        writer.start();
+
+        long[] times = new long[5];
+        int[] channels = new int[5];
+        int[] values = new int[5];
+        long last = -1;
+        long drained = 0;
+        while(writer.isAlive() || buffer.size() > 0){
+            int n = buffer.drain(times, channels, values);
+            for(int k=0; k<n; k++){
+                // never a mix of two samples
+                assertEquals(times[k], channels[k]);
+                assertEquals(-times[k], values[k]);
+                assertTrue(times[k] > last);
+                last = times[k];
+            }
+            drained += n;
+        }
+        writer.join();
+
+        assertEquals(total, drained + buffer.getDroppedCount());
+    }
+
+    @Test
+    public void testSampler() throws InterruptedException {
+        SimulatedTransport board = new SimulatedTransport();
+        RegisterInterface regint = new RegisterInterface(board);
+        regint.connect();
+
+        board.setAnalogInput(0, 100);
+        board.setAnalogInput(1, 200);
+
+        DeviceFactory factory = new DeviceFactory(regint);
+        List<AnalogInput> ais = new ArrayList<>();
+        ais.add(factory.getAI());
+        ais.add(factory.getAI());
+
+        AnalogInputSampler sampler = new AnalogInputSampler(ais, 1000, 1024);
+        sampler.start();
+        assertTrue(sampler.isRunning());
+        Thread.sleep(50);
+        sampler.stop();
+        assertFalse(sampler.isRunning());
+
+        long[] times = new long[1024];
+        int[] channels = new int[1024];
+        int[] values = new int[1024];
+        int n = sampler.drain(times, channels, values);
+
+        assertTrue(n >= 2);
+        assertEquals(0, n % 2);
+        for(int i=0; i<n; i++){
+            assertEquals(i % 2, channels[i]);
+            assertEquals(100 * (channels[i] + 1), values[i]);
+            if(i > 0) assertTrue(times[i] >= times[i-1]);
+        }
+        assertEquals(0, sampler.getFailureCount());
+    }
+}
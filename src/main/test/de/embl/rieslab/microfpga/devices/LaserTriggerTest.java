@@ -1,5 +1,7 @@
 package de.embl.rieslab.microfpga.devices;
 
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SimulatedTransport;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
@@ -52,4 +54,47 @@ public class LaserTriggerTest {
         int i = 41445;
         assertEquals(i, LaserTrigger.formatSequence(LaserTrigger.stringSequence(i)));
     }
+
+    @Test
+    public void testSingleWrite(){
+        SimulatedTransport board = new SimulatedTransport();
+        RegisterInterface regint = new RegisterInterface(board);
+        assertTrue(regint.connect());
+
+        // mode, duration and sequence in one transport write
+        LaserTrigger laser = new DeviceFactory(regint).getLaser();
+        assertTrue(laser.setParameters(new LaserParameters(LaserTriggerMode.RISING, 2000, "1010101010101010")));
+        assertEquals(1, regint.getMetrics().snapshot().getTransactionCount());
+        assertEquals(LaserTriggerMode.RISING.getValue(), board.peek(Signal.ADDR_MODE));
+        assertEquals(2000, board.peek(Signal.ADDR_DURA));
+        assertEquals(43690, board.peek(Signal.ADDR_SEQ));
+
+        // all lasers in one transport write, only the changes with shadow registers
+        LaserParameters[] params = new LaserParameters[Signal.NM_LASER];
+        for(int i=0; i<params.length; i++){
+            params[i] = new LaserParameters(LaserTriggerMode.FOLLOWING, 100 * i, "1111111111111111");
+        }
+        assertTrue(LaserTrigger.setParameters(regint, params));
+        assertEquals(2, regint.getMetrics().snapshot().getTransactionCount());
+        assertEquals(700, board.peek(Signal.ADDR_DURA + 7));
+
+        regint.setShadowEnabled(true);
+        long writes = regint.getMetrics().snapshot().getWriteCount(Signal.ADDR_MODE, 3 * Signal.NM_LASER);
+        params[3] = new LaserParameters(LaserTriggerMode.OFF, 300, "1111111111111111");
+        assertTrue(LaserTrigger.setParameters(regint, params));
+        assertEquals(3, regint.getMetrics().snapshot().getTransactionCount());
+        assertEquals(writes + 1, regint.getMetrics().snapshot().getWriteCount(Signal.ADDR_MODE, 3 * Signal.NM_LASER));
+        assertEquals(LaserTriggerMode.OFF.getValue(), board.peek(Signal.ADDR_MODE + 3));
+
+        // the frames are reused, fewer lasers only write their own registers
+        assertTrue(LaserTrigger.setParameters(regint, new LaserParameters[]{
+                new LaserParameters(LaserTriggerMode.FALLING, 50, "0000000011111111")}));
+        assertEquals(50, board.peek(Signal.ADDR_DURA));
+        assertEquals(100, board.peek(Signal.ADDR_DURA + 1));
+        assertTrue(laser.setParameters(new LaserParameters(LaserTriggerMode.RISING, 60, "1010101010101010")));
+        assertEquals(60, board.peek(Signal.ADDR_DURA));
+        assertEquals(43690, board.peek(Signal.ADDR_SEQ));
+
+        regint.disconnect();
+    }
 }
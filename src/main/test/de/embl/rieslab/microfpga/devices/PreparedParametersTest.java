@@ -0,0 +1,53 @@
+package de.embl.rieslab.microfpga.devices;
+
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SimulatedTransport;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PreparedParametersTest {
+
+    @Test
+    public void testApply() {
+        SimulatedTransport board = new SimulatedTransport();
+        RegisterInterface regint = new RegisterInterface(board);
+        assertTrue(regint.connect());
+
+        CameraParameters camera = new CameraParameters(1., 0.5, 30., 1.5);
+        LaserParameters[] lasers = {
+                new LaserParameters(LaserTriggerMode.RISING, 2000, "1010101010101010"),
+                new LaserParameters(LaserTriggerMode.FOLLOWING, 0, "1100110011001100")
+        };
+        PreparedParameters prepared = PreparedParameters.prepare(camera, lasers);
+        assertEquals(2, prepared.getNumberLasers());
+        assertTrue(prepared.hasCameraParameters());
+        assertEquals(3 * (RegisterInterface.HEADER_LENGTH + 8) + RegisterInterface.HEADER_LENGTH + 16, prepared.size());
+
+        // later changes to the parameters do not affect the prepared set
+        camera.setExposureMs(10.);
+
+        long transactions = regint.getMetrics().snapshot().getTransactionCount();
+        assertTrue(prepared.apply(regint));
+        assertEquals(transactions + 1, regint.getMetrics().snapshot().getTransactionCount());
+
+        assertEquals(LaserTriggerMode.RISING.getValue(), board.peek(Signal.ADDR_MODE));
+        assertEquals(LaserTriggerMode.FOLLOWING.getValue(), board.peek(Signal.ADDR_MODE + 1));
+        assertEquals(2000, board.peek(Signal.ADDR_DURA));
+        assertEquals(0b1100110011001100, board.peek(Signal.ADDR_SEQ + 1));
+        assertEquals(1000, board.peek(Signal.ADDR_CAM_PULSE));
+        assertEquals(1500, board.peek(Signal.ADDR_CAM_READOUT));
+        assertEquals(30000, board.peek(Signal.ADDR_CAM_EXPO));
+        assertEquals(500, board.peek(Signal.ADDR_LASER_DELAY));
+
+        // the shadow registers follow the prepared frames
+        assertEquals(30000, regint.getShadow(Signal.ADDR_CAM_EXPO));
+
+        try {
+            PreparedParameters.prepare(new LaserParameters[0]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
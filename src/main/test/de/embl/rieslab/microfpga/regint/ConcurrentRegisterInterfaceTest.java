@@ -0,0 +1,333 @@
+package de.embl.rieslab.microfpga.regint;
+
+import de.embl.rieslab.microfpga.devices.CameraParameters;
+import de.embl.rieslab.microfpga.devices.LaserParameters;
+import de.embl.rieslab.microfpga.devices.LaserTriggerMode;
+import de.embl.rieslab.microfpga.devices.PreparedParameters;
+import de.embl.rieslab.microfpga.devices.Servo;
+import de.embl.rieslab.microfpga.devices.Signal;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentRegisterInterfaceTest {
+
+    @Test
+    public void testConcurrentCallers() throws InterruptedException {
+        SimulatedTransport board = new SimulatedTransport();
+        ConcurrentRegisterInterface regint = new ConcurrentRegisterInterface(board);
+        assertTrue(regint.connect());
+
+        board.setAnalogInput(0, 777);
+
+        final int nThreads = Signal.NM_SERVO;
+        final int nIterations = 500;
+        final AtomicInteger errors = new AtomicInteger();
+
+        Thread[] threads = new Thread[nThreads];
+        for(int i=0; i<nThreads; i++){
+            final int address = Signal.ADDR_SERVO + i;
+            threads[i] = new Thread(() -> {
+                for(int j=0; j<nIterations; j++){
+                    int value = (address * 1000 + j) % Servo.MAX;
+                    if(!regint.write(address, value) || regint.read(address) != value
+                            || regint.read(Signal.ADDR_ANALOG_INPUT) != 777){
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for(Thread t: threads){
+            t.join();
+        }
+
+        assertEquals(0, errors.get());
+
+        assertTrue(regint.disconnect());
+        assertFalse(board.isOpen());
+
+        // requests after disconnection fail without blocking
+        assertEquals(-1, regint.read(Signal.ADDR_VERSION));
+    }
+
+    @Test
+    public void testPriorityLanes() throws InterruptedException {
+        SimulatedTransport board = new SimulatedTransport();
+        ConcurrentRegisterInterface regint = new ConcurrentRegisterInterface(board);
+        assertTrue(regint.connect());
+
+        final int[] image = new int[Signal.NM_REGISTERS];
+        final AtomicInteger errors = new AtomicInteger();
+        Thread poller = new Thread(() -> {
+            for(int j=0; j<20; j++){
+                if(!regint.readBurst(0, image, 0, image.length, Priority.BULK)){
+                    errors.incrementAndGet();
+                }
+            }
+        });
+        poller.start();
+
+        for(int j=0; j<20; j++){
+            assertTrue(regint.write(Signal.ADDR_TTL, j % 2, Priority.URGENT));
+            assertEquals(j % 2, regint.read(Signal.ADDR_TTL, Priority.URGENT));
+        }
+        poller.join();
+        assertEquals(0, errors.get());
+
+        // bulk bursts are split in chunks
+        RegisterMetrics.Snapshot s = regint.getMetrics().snapshot();
+        int chunks = (Signal.NM_REGISTERS + regint.getBulkChunk() - 1) / regint.getBulkChunk();
+        assertEquals(20 * chunks, s.getQueueWaitCount(Priority.BULK));
+        assertEquals(40, s.getQueueWaitCount(Priority.URGENT));
+        assertEquals(0, s.getQueueWaitCount(Priority.NORMAL));
+
+        assertTrue(regint.disconnect());
+    }
+
+    @Test
+    public void testUrgentOvertakesQueuedWork() throws Exception {
+        for(Priority lane: new Priority[]{Priority.BULK, Priority.NORMAL}){
+            SimulatedTransport board = new SimulatedTransport();
+            // about 13 ms per chunk of 16 registers
+            board.setByteLatencyNanos(200000L);
+            ConcurrentRegisterInterface regint = new ConcurrentRegisterInterface(board);
+            assertTrue(regint.connect());
+
+            final int[] image = new int[Signal.NM_REGISTERS];
+            final long[] readDone = new long[1];
+            Thread poller = new Thread(() -> {
+                regint.readBurst(0, image, 0, image.length, lane);
+                readDone[0] = System.nanoTime();
+            });
+            poller.start();
+
+            // wait for the first chunk to be served
+            long t0 = System.nanoTime();
+            while(regint.getMetrics().snapshot().getQueueWaitCount(lane) == 0
+                    && System.nanoTime() - t0 < 5000000000L){
+                Thread.sleep(1);
+            }
+            assertTrue(regint.getMetrics().snapshot().getQueueWaitCount(lane) > 0);
+
+            assertTrue(regint.write(Signal.ADDR_TTL, 1, Priority.URGENT));
+            long writeDone = System.nanoTime();
+            poller.join();
+
+            // the urgent write only waited for the chunk being read
+            assertTrue(lane.toString(), writeDone < readDone[0]);
+            assertEquals(1, board.peek(Signal.ADDR_TTL));
+            assertTrue(regint.getMetrics().snapshot().getQueueWaitCount(lane) > 1);
+
+            board.setByteLatencyNanos(0);
+            assertTrue(regint.disconnect());
+        }
+    }
+
+    @Test
+    public void testSplitWrites() {
+        SimulatedTransport board = new SimulatedTransport();
+        ConcurrentRegisterInterface regint = new ConcurrentRegisterInterface(board);
+        assertTrue(regint.connect());
+
+        // large normal writes are sent in several commands
+        int[] values = new int[Signal.NM_LASER * 2];
+        for(int i=0; i<values.length; i++){
+            values[i] = i + 1;
+        }
+        regint.setBulkChunk(4);
+        assertTrue(regint.writeBurst(Signal.ADDR_DURA, values, 0, values.length));
+        assertEquals(4, regint.getMetrics().snapshot().getQueueWaitCount(Priority.NORMAL));
+
+        byte[] frames = new byte[values.length * RegisterInterface.WRITE_FRAME_LENGTH];
+        int pos = 0;
+        for(int i=0; i<values.length; i++){
+            pos = RegisterInterface.encodeWrite(frames, pos, Signal.ADDR_DURA + i, 2 * values[i]);
+        }
+        // prepared frames are never split
+        assertTrue(regint.writeFrames(frames, pos));
+        assertEquals(4 + 1, regint.getMetrics().snapshot().getQueueWaitCount(Priority.NORMAL));
+        for(int i=0; i<values.length; i++){
+            assertEquals(2 * values[i], board.peek(Signal.ADDR_DURA + i));
+        }
+
+        // malformed frames are rejected
+        assertFalse(regint.writeFrames(frames, pos - 1));
+
+        assertTrue(regint.disconnect());
+    }
+
+    @Test
+    public void testPreparedParametersInOneCommand() {
+        SimulatedTransport board = new SimulatedTransport();
+        ConcurrentRegisterInterface regint = new ConcurrentRegisterInterface(board);
+        assertTrue(regint.connect());
+        regint.setBulkChunk(4);
+
+        LaserParameters[] lasers = new LaserParameters[Signal.NM_LASER];
+        for(int i=0; i<lasers.length; i++){
+            lasers[i] = new LaserParameters(LaserTriggerMode.RISING, 100 * (i + 1), "1010101010101010");
+        }
+        PreparedParameters params = PreparedParameters.prepare(new CameraParameters(1., 0.5, 30., 1.), lasers);
+
+        // the whole configuration is a single command and transport write
+        assertTrue(params.apply(regint));
+        RegisterMetrics.Snapshot s = regint.getMetrics().snapshot();
+        assertEquals(1, s.getQueueWaitCount(Priority.NORMAL));
+        assertEquals(1, s.getTransactionCount());
+        assertEquals(800, board.peek(Signal.ADDR_DURA + 7));
+        assertEquals(30000, board.peek(Signal.ADDR_CAM_EXPO));
+
+        assertTrue(regint.disconnect());
+    }
+
+    @Test
+    public void testCoalescing() throws InterruptedException {
+        SimulatedTransport board = new SimulatedTransport();
+        ConcurrentRegisterInterface regint = new ConcurrentRegisterInterface(board);
+        assertTrue(regint.connect());
+        regint.setCoalescingWindow(20000000L);
+
+        final int address = Signal.ADDR_SERVO;
+        for(int i=1; i<=100; i++){
+            assertTrue(regint.writeCoalesced(address, i));
+        }
+
+        // only the latest value is sent at the end of the window
+        long t0 = System.nanoTime();
+        while(board.peek(address) != 100 && System.nanoTime() - t0 < 1000000000L){
+            Thread.sleep(1);
+        }
+        assertEquals(100, board.peek(address));
+        assertTrue(regint.getMetrics().snapshot().getWriteCount(address) < 100);
+        assertTrue(regint.getSupersededCount() > 0);
+
+        // flush sends the pending values immediately
+        regint.setCoalescingWindow(60000000000L);
+        assertTrue(regint.writeCoalesced(address, 42));
+        assertTrue(regint.writeCoalesced(address + 1, 43));
+        assertTrue(regint.flush());
+        assertEquals(42, board.peek(address));
+        assertEquals(43, board.peek(address + 1));
+
+        // a direct write supersedes a pending coalesced one
+        assertTrue(regint.writeCoalesced(address, 7));
+        assertTrue(regint.write(address, 8));
+        assertTrue(regint.flush());
+        assertEquals(8, board.peek(address));
+
+        // pending values are sent before disconnecting
+        assertTrue(regint.writeCoalesced(address, 9));
+        assertTrue(regint.disconnect());
+        assertEquals(9, board.peek(address));
+    }
+
+    @Test
+    public void testSharedReads() throws InterruptedException {
+        SimulatedTransport board = new SimulatedTransport();
+        ConcurrentRegisterInterface regint = new ConcurrentRegisterInterface(board);
+        assertTrue(regint.connect());
+        board.setAnalogInput(2, 1234);
+
+        // hold the I/O thread so that all reads are queued at the same time
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> regint.submit(Priority.URGENT, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 0;
+        }));
+        holder.start();
+        long t0 = System.nanoTime();
+        while(regint.getMetrics().snapshot().getQueueWaitCount(Priority.URGENT) == 0
+                && System.nanoTime() - t0 < 5000000000L){
+            Thread.sleep(1);
+        }
+        assertEquals(1, regint.getMetrics().snapshot().getQueueWaitCount(Priority.URGENT));
+
+        final int address = Signal.ADDR_ANALOG_INPUT + 2;
+        final int nThreads = 8;
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[nThreads];
+        for(int i=0; i<nThreads; i++){
+            threads[i] = new Thread(() -> {
+                if(regint.read(address) != 1234){
+                    errors.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+
+        // a single read queued, which the other readers joined
+        t0 = System.nanoTime();
+        while(regint.getSharedReadCount() < nThreads - 1 && System.nanoTime() - t0 < 5000000000L){
+            Thread.sleep(1);
+        }
+        assertEquals(nThreads - 1, regint.getSharedReadCount());
+
+        release.countDown();
+        holder.join();
+        for(Thread t: threads){
+            t.join();
+        }
+
+        // readers waiting behind a queued read share its round trip
+        assertEquals(0, errors.get());
+        assertEquals(1, regint.getMetrics().snapshot().getReadCount(address));
+
+        // a read made after the shared one completed is a new round trip
+        assertEquals(1234, regint.read(address, Priority.URGENT));
+        assertEquals(2, regint.getMetrics().snapshot().getReadCount(address));
+
+        // a read started after a write sees the new value
+        assertTrue(regint.write(Signal.ADDR_SERVO, 321));
+        assertEquals(321, regint.read(Signal.ADDR_SERVO));
+
+        assertTrue(regint.disconnect());
+    }
+
+    @Test
+    public void testShadowFromOtherThreads() throws InterruptedException {
+        SimulatedTransport board = new SimulatedTransport();
+        ConcurrentRegisterInterface regint = new ConcurrentRegisterInterface(board);
+        assertTrue(regint.connect());
+        regint.setShadowEnabled(true);
+
+        // validity bits of the same word are updated by the I/O thread and cleared
+        // by another thread at the same time
+        final int nIterations = 2000;
+        final AtomicInteger errors = new AtomicInteger();
+        Thread writer = new Thread(() -> {
+            for(int j=1; j<=nIterations; j++){
+                if(!regint.write(Signal.ADDR_SERVO + j % 2, j % Servo.MAX)){
+                    errors.incrementAndGet();
+                }
+            }
+        });
+        Thread invalidator = new Thread(() -> {
+            for(int j=0; j<nIterations; j++){
+                regint.invalidateShadow(Signal.ADDR_PWM + j % 4);
+            }
+        });
+        writer.start();
+        invalidator.start();
+        writer.join();
+        invalidator.join();
+
+        assertEquals(0, errors.get());
+        assertTrue(regint.isShadowValid(Signal.ADDR_SERVO));
+        assertTrue(regint.isShadowValid(Signal.ADDR_SERVO + 1));
+        assertEquals(nIterations % Servo.MAX, regint.readShadowed(Signal.ADDR_SERVO));
+        assertEquals((nIterations - 1) % Servo.MAX, regint.getShadow(Signal.ADDR_SERVO + 1));
+
+        // the replay is a single command on the I/O thread
+        assertEquals(2, regint.restoreShadow(Signal.ADDR_SERVO, 2));
+
+        assertTrue(regint.disconnect());
+    }
+}
@@ -0,0 +1,198 @@
+package de.embl.rieslab.microfpga.regint;
+
+import de.embl.rieslab.microfpga.devices.PWM;
+import de.embl.rieslab.microfpga.devices.Signal;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RegisterInterfaceTest {
+
+    private SimulatedTransport board;
+    private RegisterInterface regint;
+
+    @Before
+    public void setUp(){
+        board = new SimulatedTransport(Signal.ID_CU);
+        regint = new RegisterInterface(board);
+        assertTrue(regint.connect());
+    }
+
+    @Test
+    public void testVersionAndId(){
+        assertEquals(Signal.CURRENT_VERSION, regint.read(Signal.ADDR_VERSION));
+        assertEquals(Signal.ID_CU, regint.read(Signal.ADDR_ID));
+        assertEquals(Signal.ERROR_UNKNOWN_COMMAND, regint.read(150));
+    }
+
+    @Test
+    public void testWriteRead(){
+        assertTrue(regint.write(Signal.ADDR_PWM + 2, 128));
+        assertEquals(128, regint.read(Signal.ADDR_PWM + 2));
+
+        // values are clamped to the register maximum
+        assertTrue(regint.write(Signal.ADDR_PWM + 1, 1000));
+        assertEquals(PWM.MAX, regint.read(Signal.ADDR_PWM + 1));
+
+        // analog inputs are read-only
+        board.setAnalogInput(3, 4242);
+        assertTrue(regint.write(Signal.ADDR_ANALOG_INPUT + 3, 12));
+        assertEquals(4242, regint.read(Signal.ADDR_ANALOG_INPUT + 3));
+    }
+
+    @Test
+    public void testBurst(){
+        int[] values = new int[100];
+        for(int i=0; i<values.length; i++){
+            values[i] = i + 1;
+        }
+
+        // crosses the maximum burst length
+        assertTrue(regint.writeBurst(Signal.ADDR_DURA, values, 10, Signal.NM_LASER + 2));
+        for(int i=0; i<Signal.NM_LASER; i++){
+            assertEquals(11 + i, board.peek(Signal.ADDR_DURA + i));
+        }
+
+        int[] image = new int[Signal.NM_REGISTERS];
+        assertTrue(regint.readBurst(Signal.ADDR_MODE, image, 0, Signal.NM_REGISTERS));
+        for(int i=0; i<Signal.NM_REGISTERS; i++){
+            assertEquals(board.peek(i), image[i]);
+        }
+
+        assertFalse(regint.writeBurst(0, values, 95, 10));
+        assertFalse(regint.readBurst(0, image, 0, Signal.NM_REGISTERS + 1));
+    }
+
+    @Test
+    public void testPipelinedRead(){
+        board.setAnalogInput(2, 1234);
+        regint.write(Signal.ADDR_MODE + 5, 3);
+        regint.write(Signal.ADDR_ACTIVE_SYNC, 1);
+
+        int[] addresses = new int[]{
+                Signal.ADDR_ANALOG_INPUT + 2, Signal.ADDR_MODE + 5,
+                Signal.ADDR_ACTIVE_SYNC, Signal.ADDR_VERSION, Signal.ADDR_ANALOG_INPUT + 2
+        };
+        int[] results = new int[addresses.length];
+
+        regint.setReadWindow(2);
+        assertTrue(regint.read(addresses, results));
+        assertArrayEquals(new int[]{1234, 3, 1, Signal.CURRENT_VERSION, 1234}, results);
+    }
+
+    @Test
+    public void testShadow(){
+        assertFalse(regint.isShadowValid(Signal.ADDR_TTL));
+
+        regint.write(Signal.ADDR_TTL, 1);
+        assertTrue(regint.isShadowValid(Signal.ADDR_TTL));
+        assertEquals(1, regint.getShadow(Signal.ADDR_TTL));
+
+        // the board is changed behind our back, only visible when the shadow is disabled
+        board.write(new byte[]{(byte) 0x80, (byte) Signal.ADDR_TTL, 0, 0, 0, 0, 0, 0, 0}, 9);
+        assertEquals(0, regint.readShadowed(Signal.ADDR_TTL));
+
+        regint.write(Signal.ADDR_TTL, 1);
+        regint.setShadowEnabled(true);
+        board.write(new byte[]{(byte) 0x80, (byte) Signal.ADDR_TTL, 0, 0, 0, 0, 0, 0, 0}, 9);
+        assertEquals(1, regint.readShadowed(Signal.ADDR_TTL));
+
+        regint.invalidateShadow(Signal.ADDR_TTL);
+        assertEquals(0, regint.readShadowed(Signal.ADDR_TTL));
+        assertTrue(regint.isShadowValid(Signal.ADDR_TTL));
+    }
+
+    @Test
+    public void testEncodedWrites(){
+        int[] addresses = new int[]{Signal.ADDR_TTL + 1, Signal.ADDR_PWM, Signal.ADDR_SEQ + 7};
+        int[] values = new int[]{1, 200, 43690};
+        byte[] buffer = new byte[addresses.length * RegisterInterface.WRITE_FRAME_LENGTH];
+
+        assertTrue(regint.write(addresses, values, addresses.length, buffer));
+        for(int i=0; i<addresses.length; i++){
+            assertEquals(values[i], board.peek(addresses[i]));
+            assertEquals(values[i], regint.getShadow(addresses[i]));
+        }
+
+        // buffer too small
+        assertFalse(regint.write(addresses, values, addresses.length, new byte[10]));
+
+        byte[] frame = new byte[RegisterInterface.WRITE_FRAME_LENGTH];
+        assertEquals(frame.length, RegisterInterface.encodeWrite(frame, 0, 0x01020304, -2));
+        assertEquals(0x01020304, RegisterInterface.decode(frame, 1));
+        assertEquals(-2, RegisterInterface.decode(frame, 5));
+    }
+
+    @Test
+    public void testMetrics(){
+        RegisterMetrics metrics = regint.getMetrics();
+        metrics.reset();
+
+        regint.write(Signal.ADDR_TTL, 1);
+        regint.read(Signal.ADDR_TTL);
+        regint.readBurst(Signal.ADDR_PWM, new int[Signal.NM_PWM], 0, Signal.NM_PWM);
+
+        board.close();
+        regint.read(Signal.ADDR_TTL);
+
+        RegisterMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(4, snapshot.getTransactionCount());
+        assertEquals(1, snapshot.getFailedTransactionCount());
+        assertEquals(1, snapshot.getWriteCount(Signal.ADDR_TTL));
+        assertEquals(2, snapshot.getReadCount(Signal.ADDR_TTL));
+        assertEquals(1, snapshot.getErrorCount(Signal.ADDR_TTL));
+        assertEquals(Signal.NM_PWM, snapshot.getReadCount(Signal.ADDR_PWM, Signal.NM_PWM));
+        assertEquals(RegisterInterface.WRITE_FRAME_LENGTH + 2 * RegisterInterface.HEADER_LENGTH,
+                snapshot.getBytesSent());
+        assertEquals(4 + 4 * Signal.NM_PWM, snapshot.getBytesReceived());
+
+        long total = 0;
+        for(long n: snapshot.getLatencyHistogram(Signal.ADDR_TTL)){
+            total += n;
+        }
+        assertEquals(3, total);
+        assertTrue(snapshot.getLatencyPercentileNanos(Signal.ADDR_TTL, 1, 100) > 0);
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().getReadCount(Signal.ADDR_TTL));
+
+        assertEquals(0, RegisterMetrics.bucket(0));
+        assertEquals(1, RegisterMetrics.bucket(1));
+        assertEquals(11, RegisterMetrics.bucket(1024));
+        assertEquals(RegisterMetrics.NM_BUCKETS - 1, RegisterMetrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testWriteChanged(){
+        int[] values = new int[]{1, 2, 3, 4, 5, 6, 7, 8};
+
+        // without shadow, everything is written
+        assertTrue(regint.writeChanged(Signal.ADDR_DURA, values, 0, values.length));
+        long sent = regint.getMetrics().getBytesSent();
+        assertTrue(regint.writeChanged(Signal.ADDR_DURA, values, 0, values.length));
+        assertEquals(RegisterInterface.HEADER_LENGTH + 4 * values.length,
+                regint.getMetrics().getBytesSent() - sent);
+
+        regint.setShadowEnabled(true);
+
+        // nothing changed
+        sent = regint.getMetrics().getBytesSent();
+        assertTrue(regint.writeChanged(Signal.ADDR_DURA, values, 0, values.length));
+        assertEquals(sent, regint.getMetrics().getBytesSent());
+
+        // registers 1 and 3 changed: single gap bridged in one burst,
+        // register 7 changed: separate frame
+        values[1] = 20;
+        values[3] = 40;
+        values[7] = 80;
+        assertTrue(regint.writeChanged(Signal.ADDR_DURA, values, 0, values.length));
+        assertEquals(2 * RegisterInterface.HEADER_LENGTH + 4 * 4,
+                regint.getMetrics().getBytesSent() - sent);
+
+        for(int i=0; i<values.length; i++){
+            assertEquals(values[i], board.peek(Signal.ADDR_DURA + i));
+            assertEquals(values[i], regint.getShadow(Signal.ADDR_DURA + i));
+        }
+    }
+}
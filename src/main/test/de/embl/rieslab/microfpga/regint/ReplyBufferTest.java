@@ -0,0 +1,129 @@
+package de.embl.rieslab.microfpga.regint;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+public class ReplyBufferTest {
+
+    @Test
+    public void testIncrementalReplies() throws InterruptedException {
+        final ReplyBuffer buffer = new ReplyBuffer(4);
+
+        // two replies arriving one byte at a time
+        Thread events = new Thread(() -> {
+            byte[] b = new byte[1];
+            for(int i=1; i<=8; i++){
+                b[0] = (byte) i;
+                buffer.append(b, 1);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        events.start();
+
+        byte[] reply = new byte[4];
+        assertEquals(4, buffer.take(reply, 4, 1000000000L));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, reply);
+        assertEquals(4, buffer.take(reply, 4, 1000000000L));
+        assertArrayEquals(new byte[]{5, 6, 7, 8}, reply);
+        events.join();
+        assertEquals(0, buffer.available());
+
+        // wrapping around and growing the ring
+        buffer.append(new byte[]{9, 10, 11}, 3);
+        assertEquals(2, buffer.take(reply, 2, 0));
+        buffer.append(new byte[]{12, 13, 14, 15, 16}, 5);
+        byte[] all = new byte[6];
+        assertEquals(6, buffer.take(all, 6, 0));
+        assertArrayEquals(new byte[]{11, 12, 13, 14, 15, 16}, all);
+    }
+
+    @Test
+    public void testDeadline() {
+        ReplyBuffer buffer = new ReplyBuffer();
+        buffer.append(new byte[]{1, 2, 3}, 3);
+
+        // a missing byte fails the read at its deadline
+        byte[] reply = new byte[4];
+        long t0 = System.nanoTime();
+        assertEquals(3, buffer.take(reply, 4, 20000000L));
+        long elapsed = System.nanoTime() - t0;
+        assertTrue(elapsed >= 20000000L);
+        assertTrue(elapsed < 500000000L);
+        assertEquals(0, buffer.available());
+
+        buffer.append(new byte[]{4}, 1);
+        assertEquals(1, buffer.clear());
+        assertEquals(0, buffer.take(reply, 4, 0));
+    }
+
+    @Test
+    public void testLateReply() throws InterruptedException {
+        final ReplyBuffer buffer = new ReplyBuffer();
+
+        // the first reply times out, its bytes arriving after the next request
+        byte[] reply = new byte[4];
+        assertEquals(0, buffer.take(reply, 4, 1000000L));
+        assertTrue(buffer.isStale());
+
+        long t0 = System.nanoTime();
+        Thread late = new Thread(() -> {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                return;
+            }
+            buffer.append(new byte[]{1, 2, 3, 4}, 4);
+        });
+        late.start();
+
+        // the next request waits for the line to go quiet
+        assertEquals(4, buffer.resync(50000000L, 1000000000L));
+        assertTrue(System.nanoTime() - t0 >= 60000000L);
+        assertFalse(buffer.isStale());
+        late.join();
+
+        buffer.append(new byte[]{5, 6, 7, 8}, 4);
+        assertEquals(4, buffer.take(reply, 4, 1000000000L));
+        assertArrayEquals(new byte[]{5, 6, 7, 8}, reply);
+
+        // without timed out read, no wait
+        t0 = System.nanoTime();
+        assertEquals(0, buffer.resync(50000000L, 1000000000L));
+        assertTrue(System.nanoTime() - t0 < 50000000L);
+
+        // a line that never goes quiet fails the request
+        assertEquals(0, buffer.take(reply, 4, 0));
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread noisy = new Thread(() -> {
+            while(running.get()) {
+                buffer.append(new byte[]{0}, 1);
+                LockSupport.parkNanos(1000000L);
+            }
+        });
+        noisy.start();
+        assertEquals(-1, buffer.resync(50000000L, 100000000L));
+        assertTrue(buffer.isStale());
+        running.set(false);
+        noisy.join();
+    }
+
+    @Test
+    public void testReplyTimeout() {
+        EventSerialTransport transport = new EventSerialTransport("none");
+        assertEquals(EventSerialTransport.DEFAULT_REPLY_MARGIN_NANOS + 4 * EventSerialTransport.BYTE_NANOS,
+                transport.getReplyTimeoutNanos(4));
+
+        // capped by the read timeout
+        transport.setReadTimeout(10);
+        assertEquals(10000000L, transport.getReplyTimeoutNanos(4));
+        assertEquals(-1, transport.read(new byte[4], 4));
+    }
+}
@@ -0,0 +1,67 @@
+package de.embl.rieslab.microfpga.timeline;
+
+import de.embl.rieslab.microfpga.devices.CameraParameters;
+import de.embl.rieslab.microfpga.devices.Signal;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SimulatedTransport;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SequenceStreamerTest {
+
+    @Test
+    public void testEncodeBlock() {
+        boolean[] pattern = SequenceStreamer.parsePattern("1000000000000001" + "01");
+
+        assertEquals(0x8001, SequenceStreamer.encodeBlock(pattern, 0));
+        // frames beyond the end of the pattern are off
+        assertEquals(0x4000, SequenceStreamer.encodeBlock(pattern, 1));
+
+        try {
+            SequenceStreamer.parsePattern("0102");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStream() {
+        SimulatedTransport board = new SimulatedTransport();
+        board.setByteLatencyNanos(0);
+        RegisterInterface regint = new RegisterInterface(board);
+        assertTrue(regint.connect());
+
+        StringBuilder sb0 = new StringBuilder();
+        StringBuilder sb1 = new StringBuilder();
+        for(int i=0; i<40; i++) {
+            sb0.append(i % 3 == 0 ? '1' : '0');
+            sb1.append(i % 2 == 0 ? '1' : '0');
+        }
+        boolean[][] patterns = {SequenceStreamer.parsePattern(sb0.toString()),
+                SequenceStreamer.parsePattern(sb1.toString())};
+
+        SequenceStreamer streamer = new SequenceStreamer(regint);
+        SequenceReport report = streamer.stream(patterns, new CameraParameters(1., 0., 1., 1.));
+
+        assertEquals(3, report.getNumberBlocks());
+        assertEquals(2000000, report.getPeriodNanos());
+        assertFalse(report.isCancelled());
+        for(int b=0; b<3; b++) {
+            assertTrue(report.isSent(b));
+        }
+
+        // the last block is on the board and the camera is stopped
+        assertEquals(SequenceStreamer.encodeBlock(patterns[0], 2), board.peek(Signal.ADDR_SEQ));
+        assertEquals(SequenceStreamer.encodeBlock(patterns[1], 2), board.peek(Signal.ADDR_SEQ + 1));
+        assertEquals(0, board.peek(Signal.ADDR_START_TRIGGER));
+
+        try {
+            streamer.stream(new boolean[][]{new boolean[3], new boolean[4]}, new CameraParameters(1., 0., 1., 1.));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
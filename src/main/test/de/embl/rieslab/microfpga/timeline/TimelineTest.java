@@ -0,0 +1,84 @@
+package de.embl.rieslab.microfpga.timeline;
+
+import de.embl.rieslab.microfpga.devices.LaserTrigger;
+import de.embl.rieslab.microfpga.devices.PWM;
+import de.embl.rieslab.microfpga.devices.Servo;
+import de.embl.rieslab.microfpga.devices.Signal;
+import de.embl.rieslab.microfpga.regint.RegisterInterface;
+import de.embl.rieslab.microfpga.regint.SimulatedTransport;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TimelineTest {
+
+    @Test
+    public void testCompile(){
+        Timeline timeline = new Timeline()
+                .add(2000000, Signal.ADDR_PWM, 100)
+                .addCameraStart(0)
+                .add(1000000, Signal.ADDR_SEQ + 1, 21845)
+                .add(1000000, Signal.ADDR_SEQ, 43690)
+                .add(1000000, Signal.ADDR_SEQ + 1, 43690);
+
+        CompiledTimeline compiled = timeline.compile();
+        assertEquals(5, compiled.size());
+        assertEquals(3, compiled.getNumberGroups());
+        assertEquals(2000000, compiled.getDurationNanos());
+
+        // stable order within a group
+        assertEquals(Signal.ADDR_START_TRIGGER, compiled.getAddress(0));
+        assertEquals(Signal.ADDR_SEQ + 1, compiled.getAddress(1));
+        assertEquals(Signal.ADDR_SEQ, compiled.getAddress(2));
+        assertEquals(Signal.ADDR_SEQ + 1, compiled.getAddress(3));
+
+        // the last two writes of the second group are merged into a burst
+        assertEquals(2 * RegisterInterface.HEADER_LENGTH + 3 * 4, compiled.getGroupFrames(1).length);
+
+        try {
+            timeline.add(0, Signal.ADDR_ANALOG_INPUT, 1);
+            fail();
+        } catch (IllegalArgumentException e){
+            // expected
+        }
+
+        // values are checked against the range of each register
+        int[][] invalid = {{Signal.ADDR_MODE, LaserTrigger.Mode.MAX + 1}, {Signal.ADDR_PWM, PWM.MAX + 1},
+                {Signal.ADDR_TTL, 2}, {Signal.ADDR_SERVO, Servo.MAX + 1}, {Signal.ADDR_SEQ, -1}};
+        for(int[] a: invalid){
+            try {
+                timeline.add(0, a[0], a[1]);
+                fail();
+            } catch (IllegalArgumentException e){
+                // expected
+            }
+        }
+        timeline.add(0, Signal.ADDR_PWM, PWM.MAX);
+    }
+
+    @Test
+    public void testPlay(){
+        SimulatedTransport board = new SimulatedTransport();
+        RegisterInterface regint = new RegisterInterface(board);
+        regint.connect();
+
+        Timeline timeline = new Timeline().addCameraStart(0);
+        for(int i=1; i<=10; i++){
+            timeline.add(i * 1000000L, Signal.ADDR_PWM, 10 * i);
+        }
+        timeline.addCameraStop(11000000);
+
+        TimelinePlayer player = new TimelinePlayer(regint);
+        TimelineReport report = player.play(timeline.compile());
+
+        assertFalse(report.isCancelled());
+        assertEquals(12, report.getNumberSent());
+        for(int i=0; i<12; i++){
+            assertTrue(report.getIssueErrorNanos(i) >= 0);
+            assertTrue(report.getErrorNanos(i) >= report.getIssueErrorNanos(i));
+        }
+        assertEquals(100, board.peek(Signal.ADDR_PWM));
+        assertEquals(0, board.peek(Signal.ADDR_START_TRIGGER));
+        assertEquals(100, regint.getShadow(Signal.ADDR_PWM));
+    }
+}
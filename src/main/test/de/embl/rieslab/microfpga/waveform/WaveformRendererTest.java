@@ -0,0 +1,70 @@
+package de.embl.rieslab.microfpga.waveform;
+
+import de.embl.rieslab.microfpga.devices.CameraParameters;
+import de.embl.rieslab.microfpga.devices.LaserParameters;
+import de.embl.rieslab.microfpga.devices.LaserTriggerMode;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+public class WaveformRendererTest {
+
+    private static final LaserParameters[] LASERS = {
+            new LaserParameters(LaserTriggerMode.RISING, 2000, "1010101010101010"),
+            new LaserParameters(LaserTriggerMode.FALLING, 2000, "0101010101010101"),
+            new LaserParameters(LaserTriggerMode.FOLLOWING, 0, "1100110011001100")
+    };
+
+    @Test
+    public void testRender() {
+        CameraParameters camera = new CameraParameters(1, 0.5, 30, 1);
+        Waveform w = WaveformRenderer.render(camera, LASERS, 4);
+
+        assertEquals(31500, w.getPeriodMicros());
+        assertEquals(126000, w.getDurationMicros());
+        assertEquals(3, w.getNumberLasers());
+
+        assertArrayEquals(new long[]{0, 1000, 31500, 32500, 63000, 64000, 94500, 95500}, w.getEdges(Waveform.FIRE));
+        assertArrayEquals(new long[]{500, 2500, 63500, 65500}, w.getEdges(Waveform.LASER));
+        // the last pulse is clipped to the end of the last frame
+        assertArrayEquals(new long[]{62000, 64000, 125000, 126000}, w.getEdges(Waveform.LASER + 1));
+        assertArrayEquals(new long[]{500, 30500, 32000, 62000}, w.getEdges(Waveform.LASER + 2));
+
+        assertTrue(w.isHigh(Waveform.EXPOSURE, 500));
+        assertFalse(w.isHigh(Waveform.EXPOSURE, 30500));
+
+        BitSet bits = w.getBits(Waveform.FIRE);
+        assertEquals(4000, bits.cardinality());
+        assertTrue(bits.get(999));
+        assertFalse(bits.get(1000));
+
+        WaveformMetrics m = w.getMetrics();
+        assertEquals(1e6 / 31500, m.getFrameRateHz(), 1e-9);
+        assertEquals(4000 / 126000., m.getDutyCycle(Waveform.FIRE), 1e-12);
+        assertEquals(0, m.getOutsideExposureMicros(0));
+        assertEquals(2500, m.getOutsideExposureMicros(1));
+        assertEquals(0, m.getOutsideExposureMicros(2));
+        assertEquals(2500, m.getLaserOverlapMicros());
+        assertTrue(m.hasConflicts());
+    }
+
+    @Test
+    public void testSweep() {
+        int n = 500;
+        CameraParameters[] cameras = new CameraParameters[n];
+        LaserParameters[][] lasers = new LaserParameters[n][];
+        for(int i=0; i<n; i++) {
+            cameras[i] = new CameraParameters(1, 0.5, 1 + i * 0.1, 1);
+            lasers[i] = LASERS;
+        }
+
+        WaveformMetrics[] metrics = WaveformRenderer.sweep(cameras, lasers, 32);
+        for(int i=0; i<n; i++) {
+            WaveformMetrics m = WaveformRenderer.measure(cameras[i], lasers[i], 32);
+            assertEquals(m.getFrameRateHz(), metrics[i].getFrameRateHz(), 0);
+            assertEquals(m.getLaserOverlapMicros(), metrics[i].getLaserOverlapMicros());
+        }
+    }
+}